@@ -1,21 +1,70 @@
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.sql.*;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CruiseApp extends JFrame {
+    private static final int FILTER_DEBOUNCE_MS = 150;
+
     private DBHelper db;
-    private User currentUser;
-    private DefaultTableModel tableModel;
+    private CruiseCatalog catalog;
+    private BookingService bookingService;
+    private BookingExecutor bookingExecutor;
+    private BookingBatcher bookingBatcher;
+    private SeatInventory seatInventory;
+    private BookingJournal journal;
+    // Вошедший пользователь определяется по токену сессии, без обращения к базе
+    private final SessionStore sessions = new SessionStore(SessionStore.DEFAULT_IDLE_TIMEOUT_MS);
+    private String sessionToken;
+    private CruiseTableModel tableModel;
     private JTable cruiseTable;
     private JTextField tfSearch;
     private JSpinner spMinPrice;
@@ -25,6 +74,19 @@ public class CruiseApp extends JFrame {
     private JButton btnBook;
     private JButton btnViewBookings;
     private JButton btnExport;
+    private JButton btnAnalytics;
+    private JLabel lblStatus;
+
+    // Фильтрация выполняется в фоне; применяется только результат последнего запроса
+    private final ScheduledExecutorService filterExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cruise-filter");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong filterGeneration = new AtomicLong();
+    private ScheduledFuture<?> pendingFilter;
+    private long filterRuns;
+    private long filterTotalNanos;
 
     public CruiseApp() {
         super("Туристическое агентство \"Круиз\"");
@@ -34,11 +96,52 @@ public class CruiseApp extends JFrame {
 
         db = new DBHelper("jdbc:sqlite:cruise.db");
         db.initDatabase();
+        openJournal();
+        catalog = new CruiseCatalog(db);
+        bookingBatcher = new BookingBatcher(db, BookingBatcher.DEFAULT_WINDOW_MS, BookingBatcher.DEFAULT_MAX_BATCH);
+        seatInventory = new SeatInventory(db);
+        bookingService = new BookingService(db, bookingBatcher, seatInventory);
+        // Пишет в базу один поток пакетировщика, так что ожидающих запросов может быть сколько угодно
+        bookingExecutor = new BookingExecutor(bookingService, BookingBatcher.DEFAULT_MAX_BATCH);
         initUI();
 
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                filterExecutor.shutdownNow();
+                bookingExecutor.close();
+                bookingBatcher.close();
+                db.close();
+                if (journal != null) {
+                    try {
+                        journal.close();
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        });
+
         SwingUtilities.invokeLater(this::showAuthDialog);
     }
 
+    // Журнал бронирований рядом с базой; старый bookings.dat переносится в него один раз.
+    // Без журнала приложение работает как раньше.
+    private void openJournal() {
+        try {
+            journal = new BookingJournal(new File("bookings.journal"));
+            int imported = journal.importLegacy(new File("bookings.dat"));
+            if (imported > 0) {
+                // Окно ещё строится — сообщаем после его показа, до входа в систему
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "Из bookings.dat перенесено записей: " + imported));
+            }
+            db.setJournal(journal);
+        } catch (IOException e) {
+            e.printStackTrace();
+            journal = null;
+        }
+    }
+
     private void initUI() {
         // Главная панель
         JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
@@ -55,7 +158,7 @@ public class CruiseApp extends JFrame {
         tfSearch = new JTextField(15);
         tfSearch.addKeyListener(new KeyAdapter() {
             public void keyReleased(KeyEvent e) {
-                applyFilters();
+                scheduleFilter(FILTER_DEBOUNCE_MS);
             }
         });
         filterPanel.add(tfSearch);
@@ -71,7 +174,7 @@ public class CruiseApp extends JFrame {
         filterPanel.add(spMaxPrice);
 
         JButton btnApplyFilter = new JButton("Применить");
-        btnApplyFilter.addActionListener(e -> applyFilters());
+        btnApplyFilter.addActionListener(e -> scheduleFilter(0));
         filterPanel.add(btnApplyFilter);
 
         JButton btnClearFilter = new JButton("Сбросить");
@@ -79,7 +182,7 @@ public class CruiseApp extends JFrame {
             tfSearch.setText("");
             spMinPrice.setValue(0);
             spMaxPrice.setValue(10000);
-            updateTable(db.getAllCruises());
+            showAllCruises();
         });
         filterPanel.add(btnClearFilter);
 
@@ -97,22 +200,21 @@ public class CruiseApp extends JFrame {
 
         JButton btnLogout = new JButton("Выход");
         btnLogout.addActionListener(e -> {
-            currentUser = null;
-            lblUser.setText("Гость");
-            btnManageCruises.setVisible(false);
+            sessions.close(sessionToken);
+            sessionToken = null;
+            showUser(null);
             JOptionPane.showMessageDialog(this, "Вы вышли из системы");
         });
         userPanel.add(btnLogout);
 
         btnManageCruises = new JButton("⚙ Управление круизами");
         btnManageCruises.addActionListener(e -> {
-            if (currentUser != null && currentUser.isAdmin()) {
+            if (sessions.isAdmin(sessionToken)) {
                 showCruiseManagementDialog();
             } else {
                 JOptionPane.showMessageDialog(this, "❌ Доступ запрещен! Только для администраторов.");
             }
         });
-        btnManageCruises.setVisible(false);
         userPanel.add(btnManageCruises);
 
         topPanel.add(filterPanel, BorderLayout.CENTER);
@@ -120,9 +222,7 @@ public class CruiseApp extends JFrame {
 
         // ========== ЦЕНТРАЛЬНАЯ ПАНЕЛЬ (ТАБЛИЦА) ==========
         String[] cols = {"ID", "Направление", "Дата отправления", "Дней", "Цена (₽)", "Доступно мест", "Статус"};
-        tableModel = new DefaultTableModel(cols, 0) {
-            public boolean isCellEditable(int row, int column) { return false; }
-        };
+        tableModel = new CruiseTableModel(cols, true);
 
         cruiseTable = new JTable(tableModel);
         cruiseTable.setRowHeight(25);
@@ -149,7 +249,7 @@ public class CruiseApp extends JFrame {
 
         btnExport = new JButton("📊 Экспорт броней (CSV)");
         btnExport.addActionListener(e -> {
-            if (requireLogin() && currentUser.isAdmin()) {
+            if (requireLogin() && sessions.isAdmin(sessionToken)) {
                 exportBookings();
             } else {
                 JOptionPane.showMessageDialog(this, "❌ Только администраторы могут экспортировать бронирования.");
@@ -157,13 +257,27 @@ public class CruiseApp extends JFrame {
         });
         bottomPanel.add(btnExport);
 
+        btnAnalytics = new JButton("📈 Аналитика");
+        btnAnalytics.addActionListener(e -> {
+            if (requireLogin() && sessions.isAdmin(sessionToken)) {
+                new AnalyticsDialog(this, db).setVisible(true);
+            } else {
+                JOptionPane.showMessageDialog(this, "❌ Аналитика доступна только администраторам.");
+            }
+        });
+        bottomPanel.add(btnAnalytics);
+
         JButton btnRefresh = new JButton("🔄 Обновить");
         btnRefresh.addActionListener(e -> {
-            updateTable(db.getAllCruises());
+            catalog.reload();
+            showAllCruises();
             JOptionPane.showMessageDialog(this, "Данные обновлены");
         });
         bottomPanel.add(btnRefresh);
 
+        lblStatus = new JLabel(" ");
+        bottomPanel.add(lblStatus);
+
         // Сборка главного окна
         mainPanel.add(topPanel, BorderLayout.NORTH);
         mainPanel.add(scrollPane, BorderLayout.CENTER);
@@ -171,12 +285,23 @@ public class CruiseApp extends JFrame {
 
         add(mainPanel);
 
+        showUser(null);
+
         // Загрузка данных
-        updateTable(db.getAllCruises());
+        showAllCruises();
+    }
+
+    private User currentUser() {
+        return sessions.get(sessionToken);
     }
 
     private boolean requireLogin() {
-        if (currentUser == null) {
+        if (currentUser() == null) {
+            if (sessionToken != null) {
+                // Сессия истекла по простою
+                sessionToken = null;
+                showUser(null);
+            }
             int result = JOptionPane.showConfirmDialog(this,
                     "Необходимо войти в систему. Выполнить вход?",
                     "Требуется авторизация",
@@ -184,7 +309,7 @@ public class CruiseApp extends JFrame {
             if (result == JOptionPane.YES_OPTION) {
                 showAuthDialog();
             }
-            return currentUser != null;
+            return currentUser() != null;
         }
         return true;
     }
@@ -194,56 +319,68 @@ public class CruiseApp extends JFrame {
         dlg.setVisible(true);
         User u = dlg.getAuthenticatedUser();
         if (u != null) {
-            currentUser = u;
-            lblUser.setText(u.getFullname() + (u.isAdmin() ? " (Администратор)" : ""));
-            btnManageCruises.setVisible(u.isAdmin());
-            btnExport.setVisible(u.isAdmin());
+            sessions.close(sessionToken);
+            sessionToken = sessions.open(u);
+            showUser(u);
         }
     }
 
+    // Имя в шапке и кнопки, доступные только администратору; null — гость
+    private void showUser(User u) {
+        boolean admin = u != null && u.isAdmin();
+        lblUser.setText(u == null ? "Гость" : u.getFullname() + (admin ? " (Администратор)" : ""));
+        btnManageCruises.setVisible(admin);
+        btnExport.setVisible(admin);
+        btnAnalytics.setVisible(admin);
+    }
+
     private void showCruiseManagementDialog() {
-        CruiseManagementDialog dlg = new CruiseManagementDialog(this, db);
+        CruiseManagementDialog dlg = new CruiseManagementDialog(this, db, catalog);
         dlg.setVisible(true);
-        updateTable(db.getAllCruises());
+        showAllCruises();
     }
 
-    private void applyFilters() {
-        String searchText = tfSearch.getText().trim().toLowerCase();
-        double minPrice = ((Number) spMinPrice.getValue()).doubleValue();
-        double maxPrice = ((Number) spMaxPrice.getValue()).doubleValue();
-
-        List<Cruise> filtered = new ArrayList<>();
-        for (Cruise c : db.getAllCruises()) {
-            boolean matchSearch = searchText.isEmpty() ||
-                    c.getDestination().toLowerCase().contains(searchText);
-            boolean matchPrice = c.getPricePerPerson() >= minPrice &&
-                    c.getPricePerPerson() <= maxPrice;
+    // Вызывается в EDT: значения фильтра читаются сразу, поиск — в фоне после паузы ввода
+    private void scheduleFilter(long delayMillis) {
+        String searchText = tfSearch.getText();
+        long minPrice = Money.ofRubles(((Number) spMinPrice.getValue()).longValue());
+        long maxPrice = Money.ofRubles(((Number) spMaxPrice.getValue()).longValue());
+        long requestedAt = System.nanoTime();
+        long generation = filterGeneration.incrementAndGet();
 
-            if (matchSearch && matchPrice) {
-                filtered.add(c);
-            }
+        if (pendingFilter != null) {
+            pendingFilter.cancel(false);
         }
-        updateTable(filtered);
+        pendingFilter = filterExecutor.schedule(() -> {
+            if (generation != filterGeneration.get()) return;
+            List<Cruise> filtered = catalog.filter(searchText, minPrice, maxPrice);
+
+            SwingUtilities.invokeLater(() -> {
+                if (generation != filterGeneration.get()) return;
+                updateTable(filtered);
+                recordFilterLatency(System.nanoTime() - requestedAt, filtered.size());
+            });
+        }, delayMillis, TimeUnit.MILLISECONDS);
     }
 
-    private void updateTable(List<Cruise> cruises) {
-        tableModel.setRowCount(0);
-        SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
+    // Время от нажатия клавиши до обновления таблицы (включая паузу ввода)
+    private void recordFilterLatency(long nanos, int found) {
+        filterRuns++;
+        filterTotalNanos += nanos;
+        lblStatus.setText(String.format("Найдено: %d · фильтр: %d мс (среднее %d мс)",
+                found, nanos / 1_000_000, filterTotalNanos / filterRuns / 1_000_000));
+    }
 
-        for (Cruise c : cruises) {
-            String status = c.getAvailableSeats() > 0 ?
-                    "✅ Есть места" : "❌ Нет мест";
-
-            tableModel.addRow(new Object[]{
-                    c.getId(),
-                    c.getDestination(),
-                    sdf.format(c.getDeparture()),
-                    c.getDurationDays(),
-                    String.format("%,.2f", c.getPricePerPerson()),
-                    c.getAvailableSeats(),
-                    status
-            });
-        }
+    // Показ полного каталога отменяет ещё не применённый результат фильтра
+    private void showAllCruises() {
+        filterGeneration.incrementAndGet();
+        List<Cruise> cruises = catalog.getAll();
+        updateTable(cruises);
+        lblStatus.setText("Всего круизов: " + cruises.size());
+    }
+
+    private void updateTable(List<Cruise> cruises) {
+        tableModel.setCruises(cruises);
     }
 
     private void bookSelectedCruise() {
@@ -256,7 +393,7 @@ public class CruiseApp extends JFrame {
         }
 
         int cruiseId = (int) cruiseTable.getValueAt(row, 0);
-        Cruise cruise = db.findCruiseById(cruiseId);
+        Cruise cruise = catalog.findById(cruiseId);
 
         if (cruise == null) {
             JOptionPane.showMessageDialog(this, "❌ Круиз не найден");
@@ -273,24 +410,38 @@ public class CruiseApp extends JFrame {
         Booking booking = dlg.getBooking();
 
         if (booking != null) {
-            booking.setUserId(currentUser.getId());
-            booking.setCruise(cruise);
+            // Запись в базу — вне EDT; результат показывается по завершении
+            btnBook.setEnabled(false);
+            bookingExecutor.book(currentUser().getId(), cruise.getId(), booking.getSeats(),
+                    booking.getCustomerName(), booking.getContact())
+                    .whenComplete((result, error) -> SwingUtilities.invokeLater(() -> showBookingResult(
+                            error == null ? result : new BookingResult(BookingResult.Status.FAILED, -1))));
+        }
+    }
 
-            if (db.insertBooking(booking)) {
-                cruise.decrementAvailableSeats(booking.getSeats());
-                db.updateCruiseSeats(cruise);
-                updateTable(db.getAllCruises());
+    private void showBookingResult(BookingResult result) {
+        btnBook.setEnabled(true);
+        showAllCruises();
+
+        switch (result.getStatus()) {
+            case OK:
                 JOptionPane.showMessageDialog(this, "✅ Бронирование успешно оформлено!");
-            } else {
+                break;
+            case NO_SEATS:
+                JOptionPane.showMessageDialog(this, "❌ Недостаточно свободных мест");
+                break;
+            case NOT_FOUND:
+                JOptionPane.showMessageDialog(this, "❌ Круиз не найден");
+                break;
+            default:
                 JOptionPane.showMessageDialog(this, "❌ Ошибка при бронировании");
-            }
         }
     }
 
     private void showBookingsDialog() {
-        BookingsDialog dlg = new BookingsDialog(this, db, currentUser);
+        BookingsDialog dlg = new BookingsDialog(this, db, bookingExecutor, currentUser());
         dlg.setVisible(true);
-        updateTable(db.getAllCruises());
+        showAllCruises();
     }
 
     private void exportBookings() {
@@ -299,14 +450,63 @@ public class CruiseApp extends JFrame {
 
         if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             File file = fc.getSelectedFile();
-            try {
-                db.exportBookingsToCSV(file);
-                JOptionPane.showMessageDialog(this,
-                        "✅ Экспорт выполнен: " + file.getAbsolutePath());
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this,
-                        "❌ Ошибка экспорта: " + ex.getMessage());
-            }
+
+            // Окно хода выгрузки; сама выгрузка идёт в фоновом потоке
+            JDialog progressDialog = new JDialog(this, "Экспорт бронирований", false);
+            JProgressBar progressBar = new JProgressBar();
+            progressBar.setStringPainted(true);
+            progressBar.setIndeterminate(true);
+            JButton btnCancel = new JButton("❌ Отмена");
+            JPanel panel = new JPanel(new BorderLayout(10, 10));
+            panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+            panel.add(progressBar, BorderLayout.CENTER);
+            panel.add(btnCancel, BorderLayout.EAST);
+            progressDialog.add(panel);
+            progressDialog.setSize(420, 100);
+            progressDialog.setLocationRelativeTo(this);
+
+            long start = System.nanoTime();
+            SwingWorker<Long, long[]> worker = new SwingWorker<Long, long[]>() {
+                protected Long doInBackground() throws Exception {
+                    return db.exportBookingsToCSV(file, DBHelper.EXPORT_FETCH_SIZE, (rows, total) -> {
+                        publish(new long[]{rows, total});
+                        return !isCancelled();
+                    });
+                }
+
+                protected void process(List<long[]> chunks) {
+                    long[] last = chunks.get(chunks.size() - 1);
+                    if (last[1] > 0) {
+                        progressBar.setIndeterminate(false);
+                        progressBar.setMaximum((int) Math.min(Integer.MAX_VALUE, last[1]));
+                        progressBar.setValue((int) Math.min(Integer.MAX_VALUE, last[0]));
+                    }
+                    progressBar.setString(String.format("%,d из %,d", last[0], last[1]));
+                }
+
+                protected void done() {
+                    progressDialog.dispose();
+                    if (isCancelled()) {
+                        JOptionPane.showMessageDialog(CruiseApp.this, "Экспорт отменён");
+                        return;
+                    }
+                    try {
+                        long rows = get();
+                        double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+                        JOptionPane.showMessageDialog(CruiseApp.this,
+                                String.format("✅ Экспорт выполнен: %s%nСтрок: %,d (%,.0f строк/с)",
+                                        file.getAbsolutePath(), rows, rows / seconds));
+                    } catch (Exception ex) {
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        JOptionPane.showMessageDialog(CruiseApp.this,
+                                "❌ Ошибка экспорта: " + cause.getMessage());
+                    }
+                }
+            };
+
+            btnCancel.addActionListener(e -> worker.cancel(false));
+            worker.execute();
+            progressDialog.setVisible(true);
         }
     }
 
@@ -373,14 +573,34 @@ class AuthDialog extends JDialog {
                 return;
             }
 
-            User user = db.authenticateUser(username, password);
-            if (user != null) {
-                authenticatedUser = user;
-                JOptionPane.showMessageDialog(this, "✅ Добро пожаловать, " + user.getFullname() + "!");
-                dispose();
-            } else {
-                JOptionPane.showMessageDialog(this, "❌ Неверное имя или пароль");
-            }
+            // PBKDF2 намеренно медленный — проверка пароля идёт вне EDT
+            btnLogin.setEnabled(false);
+            new SwingWorker<User, Void>() {
+                @Override
+                protected User doInBackground() {
+                    return db.authenticateUser(username, password);
+                }
+
+                @Override
+                protected void done() {
+                    btnLogin.setEnabled(true);
+                    User user;
+                    try {
+                        user = get();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        user = null;
+                    }
+                    if (user != null) {
+                        authenticatedUser = user;
+                        JOptionPane.showMessageDialog(AuthDialog.this,
+                                "✅ Добро пожаловать, " + user.getFullname() + "!");
+                        dispose();
+                    } else {
+                        JOptionPane.showMessageDialog(AuthDialog.this, "❌ Неверное имя или пароль");
+                    }
+                }
+            }.execute();
         });
         loginPanel.add(btnLogin, gbc);
 
@@ -420,17 +640,37 @@ class AuthDialog extends JDialog {
                 return;
             }
 
-            if (db.registerUser(username, password, fullname)) {
-                JOptionPane.showMessageDialog(this,
-                        "✅ Регистрация успешна! Теперь войдите в систему.");
-                tfRegUsername.setText("");
-                pfRegPassword.setText("");
-                tfFullname.setText("");
-                tabs.setSelectedIndex(0);
-            } else {
-                JOptionPane.showMessageDialog(this,
-                        "❌ Ошибка регистрации. Возможно, имя занято.");
-            }
+            // Хеширование пароля (PBKDF2) — вне EDT, как и при входе
+            btnRegister.setEnabled(false);
+            new SwingWorker<Boolean, Void>() {
+                @Override
+                protected Boolean doInBackground() {
+                    return db.registerUser(username, password, fullname);
+                }
+
+                @Override
+                protected void done() {
+                    btnRegister.setEnabled(true);
+                    boolean registered;
+                    try {
+                        registered = get();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        registered = false;
+                    }
+                    if (registered) {
+                        JOptionPane.showMessageDialog(AuthDialog.this,
+                                "✅ Регистрация успешна! Теперь войдите в систему.");
+                        tfRegUsername.setText("");
+                        pfRegPassword.setText("");
+                        tfFullname.setText("");
+                        tabs.setSelectedIndex(0);
+                    } else {
+                        JOptionPane.showMessageDialog(AuthDialog.this,
+                                "❌ Ошибка регистрации. Возможно, имя занято.");
+                    }
+                }
+            }.execute();
         });
         regPanel.add(btnRegister, gbc);
 
@@ -471,19 +711,17 @@ class BookingDialog extends JDialog {
         infoPanel.setBorder(BorderFactory.createTitledBorder("🚢 Информация о круизе"));
         infoPanel.setBackground(new Color(240, 248, 255));
 
-        SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-
         infoPanel.add(new JLabel("Направление:"));
         infoPanel.add(new JLabel(cruise.getDestination()));
 
         infoPanel.add(new JLabel("Дата отправления:"));
-        infoPanel.add(new JLabel(sdf.format(cruise.getDeparture())));
+        infoPanel.add(new JLabel(Dates.formatDay(cruise.getDeparture())));
 
         infoPanel.add(new JLabel("Длительность:"));
         infoPanel.add(new JLabel(cruise.getDurationDays() + " дней"));
 
         infoPanel.add(new JLabel("Цена за человека:"));
-        infoPanel.add(new JLabel(String.format("%,.2f ₽", cruise.getPricePerPerson())));
+        infoPanel.add(new JLabel(Money.format(cruise.getPriceKop()) + " ₽"));
 
         infoPanel.add(new JLabel("Доступно мест:"));
         infoPanel.add(new JLabel(String.valueOf(cruise.getAvailableSeats())));
@@ -526,8 +764,8 @@ class BookingDialog extends JDialog {
 
         spSeats.addChangeListener(e -> {
             int seats = (int) spSeats.getValue();
-            double total = seats * cruise.getPricePerPerson();
-            lblTotalPrice.setText(String.format("%,.2f ₽", total));
+            long total = Money.times(cruise.getPriceKop(), seats);
+            lblTotalPrice.setText(Money.format(total) + " ₽");
         });
 
         mainPanel.add(infoPanel, BorderLayout.NORTH);
@@ -557,7 +795,7 @@ class BookingDialog extends JDialog {
                 return;
             }
 
-            result = new Booking(-1, -1, cruise, seats, contact, new Date());
+            result = new Booking(-1, -1, cruise, seats, contact, Instant.now());
             result.setCustomerName(name);
             dispose();
         });
@@ -587,21 +825,21 @@ class BookingDialog extends JDialog {
 // ===================================================================
 class CruiseManagementDialog extends JDialog {
     private DBHelper db;
-    private DefaultTableModel tableModel;
+    private CruiseCatalog catalog;
+    private CruiseTableModel tableModel;
     private JTable cruiseTable;
 
-    public CruiseManagementDialog(JFrame owner, DBHelper db) {
+    public CruiseManagementDialog(JFrame owner, DBHelper db, CruiseCatalog catalog) {
         super(owner, "Управление круизами", true);
         this.db = db;
+        this.catalog = catalog;
         setSize(800, 500);
         setLocationRelativeTo(owner);
         setLayout(new BorderLayout(10, 10));
 
         // Таблица круизов
         String[] cols = {"ID", "Направление", "Дата", "Дней", "Цена", "Мест"};
-        tableModel = new DefaultTableModel(cols, 0) {
-            public boolean isCellEditable(int row, int column) { return false; }
-        };
+        tableModel = new CruiseTableModel(cols, false);
 
         cruiseTable = new JTable(tableModel);
         cruiseTable.setRowHeight(25);
@@ -622,12 +860,19 @@ class CruiseManagementDialog extends JDialog {
         JButton btnDelete = new JButton("🗑 Удалить");
         btnDelete.addActionListener(e -> deleteCruise());
 
+        JButton btnImport = new JButton("📥 Импорт из файла");
+        btnImport.addActionListener(e -> importCruises(btnImport));
+
         JButton btnRefresh = new JButton("🔄 Обновить");
-        btnRefresh.addActionListener(e -> loadCruises());
+        btnRefresh.addActionListener(e -> {
+            catalog.reload();
+            loadCruises();
+        });
 
         btnPanel.add(btnAdd);
         btnPanel.add(btnEdit);
         btnPanel.add(btnDelete);
+        btnPanel.add(btnImport);
         btnPanel.add(btnRefresh);
 
         add(new JScrollPane(cruiseTable), BorderLayout.CENTER);
@@ -635,19 +880,7 @@ class CruiseManagementDialog extends JDialog {
     }
 
     private void loadCruises() {
-        tableModel.setRowCount(0);
-        SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-
-        for (Cruise c : db.getAllCruises()) {
-            tableModel.addRow(new Object[]{
-                    c.getId(),
-                    c.getDestination(),
-                    sdf.format(c.getDeparture()),
-                    c.getDurationDays(),
-                    String.format("%,.0f", c.getPricePerPerson()),
-                    c.getAvailableSeats()
-            });
-        }
+        tableModel.setCruises(catalog.getAll());
     }
 
     private void showAddCruiseDialog() {
@@ -662,6 +895,50 @@ class CruiseManagementDialog extends JDialog {
         }
     }
 
+    // Сезонный каталог из CSV/JSON: разбор и запись в базу — в фоне
+    private void importCruises(JButton btnImport) {
+        JFileChooser fc = new JFileChooser();
+        fc.setDialogTitle("Импорт круизов");
+        fc.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV и JSON", "csv", "json"));
+        if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fc.getSelectedFile();
+
+        btnImport.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<CruiseImporter.Result, Void>() {
+            @Override
+            protected CruiseImporter.Result doInBackground() throws Exception {
+                return CruiseImporter.importFile(db, file, CruiseImporter.DEFAULT_TRANSACTION_ROWS);
+            }
+
+            @Override
+            protected void done() {
+                btnImport.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                loadCruises();
+                CruiseImporter.Result result;
+                try {
+                    result = get();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(CruiseManagementDialog.this,
+                            "❌ Ошибка импорта: " + cause.getMessage());
+                    return;
+                }
+                if (result.getErrors().isEmpty()) {
+                    JOptionPane.showMessageDialog(CruiseManagementDialog.this, "✅ " + result.summary());
+                    return;
+                }
+                JTextArea errors = new JTextArea(String.join("\n", result.getErrors()), 12, 60);
+                errors.setEditable(false);
+                JOptionPane.showMessageDialog(CruiseManagementDialog.this,
+                        new Object[]{result.summary(), "Отклонённые строки:", new JScrollPane(errors)},
+                        "Импорт круизов", JOptionPane.WARNING_MESSAGE);
+            }
+        }.execute();
+    }
+
     private void showEditCruiseDialog() {
         int row = cruiseTable.getSelectedRow();
         if (row == -1) {
@@ -670,7 +947,7 @@ class CruiseManagementDialog extends JDialog {
         }
 
         int cruiseId = (int) cruiseTable.getValueAt(row, 0);
-        Cruise cruise = db.findCruiseById(cruiseId);
+        Cruise cruise = catalog.findById(cruiseId);
 
         if (cruise != null) {
             CruiseDialog dlg = new CruiseDialog((JFrame) getOwner(), cruise);
@@ -744,19 +1021,17 @@ class CruiseDialog extends JDialog {
         JSpinner spYear = new JSpinner(new SpinnerNumberModel(2026, 2024, 2030, 1));
 
         if (editMode) {
-            SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-            String dateStr = sdf.format(cruise.getDeparture());
-            String[] parts = dateStr.split("\\.");
-            spDay.setValue(Integer.parseInt(parts[0]));
-            spMonth.setValue(Integer.parseInt(parts[1]));
-            spYear.setValue(Integer.parseInt(parts[2]));
+            LocalDate date = Dates.toLocalDate(cruise.getDeparture());
+            spDay.setValue(date.getDayOfMonth());
+            spMonth.setValue(date.getMonthValue());
+            spYear.setValue(date.getYear());
         }
 
         JSpinner spDuration = new JSpinner(new SpinnerNumberModel(7, 1, 30, 1));
         if (editMode) spDuration.setValue(cruise.getDurationDays());
 
         JSpinner spPrice = new JSpinner(new SpinnerNumberModel(1000.0, 0.0, 100000.0, 100.0));
-        if (editMode) spPrice.setValue(cruise.getPricePerPerson());
+        if (editMode) spPrice.setValue(Money.toRubles(cruise.getPriceKop()));
 
         JSpinner spSeats = new JSpinner(new SpinnerNumberModel(50, 1, 1000, 1));
         if (editMode) spSeats.setValue(cruise.getAvailableSeats());
@@ -809,11 +1084,11 @@ class CruiseDialog extends JDialog {
                 int month = (Integer) spMonth.getValue();
                 int year = (Integer) spYear.getValue();
 
-                SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-                Date departure = sdf.parse(day + "." + month + "." + year);
+                // Несуществующая дата (например, 31.02) — ошибка, а не перенос на март
+                Instant departure = Dates.startOfDay(year, month, day);
 
                 int duration = (Integer) spDuration.getValue();
-                double price = (Double) spPrice.getValue();
+                long price = Money.ofRubles((Double) spPrice.getValue());
                 int seats = (Integer) spSeats.getValue();
 
                 result = new Cruise(-1, destination, departure, duration, price, seats);
@@ -846,28 +1121,38 @@ class CruiseDialog extends JDialog {
 // ДИАЛОГ ПРОСМОТРА БРОНИРОВАНИЙ
 // ===================================================================
 class BookingsDialog extends JDialog {
+    private static final int PAGE_SIZE = 200;
+    // Следующая страница запрашивается, когда до конца таблицы осталось меньше стольких строк
+    private static final int PREFETCH_ROWS = 50;
+
     private DBHelper db;
+    private BookingExecutor bookingExecutor;
     private User currentUser;
-    private DefaultTableModel tableModel;
-
-    public BookingsDialog(JFrame owner, DBHelper db, User user) {
+    private BookingsTableModel tableModel = new BookingsTableModel();
+    private JTable bookingsTable;
+    private JLabel lblStatus = new JLabel(" ");
+    private long generation;
+    private boolean loading;
+    private boolean hasMore;
+
+    public BookingsDialog(JFrame owner, DBHelper db, BookingExecutor bookingExecutor, User user) {
         super(owner, "Мои бронирования", true);
         this.db = db;
+        this.bookingExecutor = bookingExecutor;
         this.currentUser = user;
         setSize(800, 500);
         setLocationRelativeTo(owner);
         setLayout(new BorderLayout());
 
         // Таблица бронирований
-        String[] cols = {"ID", "Круиз", "Направление", "Дата круиза", "Мест", "Контакт", "Дата брони", "Сумма"};
-        tableModel = new DefaultTableModel(cols, 0) {
-            public boolean isCellEditable(int row, int column) { return false; }
-        };
-
-        JTable bookingsTable = new JTable(tableModel);
+        bookingsTable = new JTable(tableModel);
         bookingsTable.setRowHeight(25);
         bookingsTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 12));
 
+        // Бесконечная прокрутка: страницы догружаются при приближении к концу списка
+        JScrollPane scrollPane = new JScrollPane(bookingsTable);
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> loadMoreIfNeeded());
+
         loadBookings();
 
         // Панель кнопок
@@ -890,41 +1175,289 @@ class BookingsDialog extends JDialog {
                     JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
-                db.deleteBookingById(bookingId);
-                loadBookings();
-                JOptionPane.showMessageDialog(this, "✅ Бронирование отменено");
+                btnDelete.setEnabled(false);
+                bookingExecutor.cancel(bookingId).whenComplete((ok, error) -> SwingUtilities.invokeLater(() -> {
+                    btnDelete.setEnabled(true);
+                    loadBookings();
+                    JOptionPane.showMessageDialog(this, error == null && ok ?
+                            "✅ Бронирование отменено" : "❌ Не удалось отменить бронирование");
+                }));
             }
         });
 
         JButton btnClose = new JButton("Закрыть");
         btnClose.addActionListener(e -> dispose());
 
+        btnPanel.add(lblStatus);
         btnPanel.add(btnDelete);
         btnPanel.add(btnClose);
 
-        add(new JScrollPane(bookingsTable), BorderLayout.CENTER);
+        add(scrollPane, BorderLayout.CENTER);
         add(btnPanel, BorderLayout.SOUTH);
     }
 
+    // Список перечитывается с первой страницы; ответы на прежние запросы отбрасываются
     private void loadBookings() {
-        tableModel.setRowCount(0);
-        SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-        SimpleDateFormat sdfDateTime = new SimpleDateFormat("dd.MM.yyyy HH:mm");
-
-        List<Booking> bookings = db.getBookingsByUser(currentUser.getId());
-        for (Booking b : bookings) {
-            double total = b.getSeats() * b.getCruise().getPricePerPerson();
-
-            tableModel.addRow(new Object[]{
-                    b.getId(),
-                    b.getCruise().getId(),
-                    b.getCruise().getDestination(),
-                    sdf.format(b.getCruise().getDeparture()),
-                    b.getSeats(),
-                    b.getContact(),
-                    sdfDateTime.format(b.getBookingDate()),
-                    String.format("%,.2f ₽", total)
-            });
+        generation++;
+        loading = false;
+        hasMore = true;
+        tableModel.clear();
+        loadNextPage();
+    }
+
+    private void loadMoreIfNeeded() {
+        if (loading || !hasMore) return;
+        Rectangle visible = bookingsTable.getVisibleRect();
+        int lastVisible = bookingsTable.rowAtPoint(new Point(0, visible.y + visible.height - 1));
+        if (lastVisible == -1 || lastVisible >= tableModel.getRowCount() - PREFETCH_ROWS) {
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage() {
+        if (loading || !hasMore) return;
+        loading = true;
+        long requested = generation;
+        BookingRow after = tableModel.getLastRow();
+        lblStatus.setText("Загрузка...");
+
+        new SwingWorker<List<BookingRow>, Void>() {
+            protected List<BookingRow> doInBackground() {
+                return db.getBookingsPage(currentUser.getId(), after, PAGE_SIZE);
+            }
+
+            protected void done() {
+                if (requested != generation) return;
+                List<BookingRow> page;
+                try {
+                    page = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    page = Collections.emptyList();
+                }
+                loading = false;
+                hasMore = page.size() == PAGE_SIZE;
+                tableModel.append(page);
+                lblStatus.setText("Показано броней: " + tableModel.getRowCount() + (hasMore ? "+" : ""));
+                // Если страница не заполнила окно, прокрутки не будет — догружаем сразу
+                SwingUtilities.invokeLater(() -> loadMoreIfNeeded());
+            }
+        }.execute();
+    }
+}
+
+// Модель «Моих бронирований»: строки добавляются страницами, ячейки форматируются при отрисовке
+class BookingsTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS =
+            {"ID", "Круиз", "Направление", "Дата круиза", "Мест", "Контакт", "Дата брони", "Сумма"};
+
+    private final List<BookingRow> rows = new ArrayList<>();
+
+    public void clear() {
+        rows.clear();
+        fireTableDataChanged();
+    }
+
+    public void append(List<BookingRow> page) {
+        if (page.isEmpty()) return;
+        int first = rows.size();
+        rows.addAll(page);
+        fireTableRowsInserted(first, rows.size() - 1);
+    }
+
+    public BookingRow getLastRow() {
+        return rows.isEmpty() ? null : rows.get(rows.size() - 1);
+    }
+
+    public int getRowCount() { return rows.size(); }
+    public int getColumnCount() { return COLUMNS.length; }
+    public String getColumnName(int column) { return COLUMNS[column]; }
+
+    public Object getValueAt(int row, int column) {
+        BookingRow b = rows.get(row);
+        switch (column) {
+            case 0: return b.getId();
+            case 1: return b.getCruiseId();
+            case 2: return b.getDestination();
+            case 3: return Dates.formatDay(b.getDeparture());
+            case 4: return b.getSeats();
+            case 5: return b.getContact();
+            case 6: return Dates.formatDateTime(b.getBookingDate());
+            case 7: return Money.format(b.getTotalKop()) + " ₽";
+            default: return null;
+        }
+    }
+}
+
+// ===================================================================
+// АНАЛИТИКА: ВЫРУЧКА И ЗАГРУЗКА
+// ===================================================================
+// Все цифры читаются из агрегатов, которые триггеры обновляют при каждой брони,
+// отмене и правке круиза, поэтому окно открывается за время, не зависящее от числа броней.
+class AnalyticsDialog extends JDialog {
+    // Сколько круизов и направлений показывать (по убыванию выручки)
+    private static final int TOP_ROWS = 200;
+
+    private DBHelper db;
+    private AnalyticsTableModel byCruise = new AnalyticsTableModel("Круиз");
+    private AnalyticsTableModel byDestination = new AnalyticsTableModel("Направление");
+    private AnalyticsTableModel byMonth = new AnalyticsTableModel("Месяц отправления (UTC)");
+    private JLabel lblTotal = new JLabel("Загрузка...");
+
+    public AnalyticsDialog(JFrame owner, DBHelper db) {
+        super(owner, "Аналитика: выручка и загрузка", true);
+        this.db = db;
+        setSize(900, 550);
+        setLocationRelativeTo(owner);
+        setLayout(new BorderLayout());
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.setFont(new Font("Arial", Font.BOLD, 12));
+        tabs.addTab("По месяцам", createTable(byMonth));
+        tabs.addTab("По направлениям", createTable(byDestination));
+        tabs.addTab("По круизам", createTable(byCruise));
+
+        lblTotal.setFont(new Font("Arial", Font.BOLD, 12));
+        lblTotal.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 15, 10));
+        JButton btnRefresh = new JButton("🔄 Обновить");
+        btnRefresh.addActionListener(e -> load());
+        JButton btnClose = new JButton("Закрыть");
+        btnClose.addActionListener(e -> dispose());
+        btnPanel.add(btnRefresh);
+        btnPanel.add(btnClose);
+
+        add(lblTotal, BorderLayout.NORTH);
+        add(tabs, BorderLayout.CENTER);
+        add(btnPanel, BorderLayout.SOUTH);
+
+        load();
+    }
+
+    private JScrollPane createTable(AnalyticsTableModel model) {
+        JTable table = new JTable(model);
+        table.setRowHeight(25);
+        table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 12));
+        table.getColumnModel().getColumn(0).setPreferredWidth(300);
+        return new JScrollPane(table);
+    }
+
+    private void load() {
+        lblTotal.setText("Загрузка...");
+        new SwingWorker<List<List<AnalyticsRow>>, Void>() {
+            private long nanos;
+
+            protected List<List<AnalyticsRow>> doInBackground() {
+                long start = System.nanoTime();
+                List<List<AnalyticsRow>> result = Arrays.asList(db.getRevenueByMonth(),
+                        db.getRevenueByDestination(TOP_ROWS), db.getRevenueByCruise(TOP_ROWS));
+                nanos = System.nanoTime() - start;
+                return result;
+            }
+
+            protected void done() {
+                List<List<AnalyticsRow>> result;
+                try {
+                    result = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    lblTotal.setText("❌ Не удалось загрузить аналитику");
+                    return;
+                }
+                byMonth.setRows(result.get(0));
+                byDestination.setRows(result.get(1));
+                byCruise.setRows(result.get(2));
+
+                // Итог — сумма по месяцам: каждый круиз входит ровно в один месяц
+                long bookings = 0, seats = 0, available = 0, revenue = 0;
+                for (AnalyticsRow r : result.get(0)) {
+                    bookings += r.getBookings();
+                    seats += r.getSeats();
+                    available += r.getAvailable();
+                    revenue += r.getRevenueKop();
+                }
+                AnalyticsRow total = new AnalyticsRow("", 0, bookings, seats, available, revenue);
+                lblTotal.setText(String.format("Выручка: %s ₽   Броней: %d   Продано мест: %d из %d (%.1f%%)   " +
+                                "[%.1f мс]", Money.format(revenue), bookings, seats, seats + available,
+                        total.getOccupancy() * 100, nanos / 1e6));
+            }
+        }.execute();
+    }
+}
+
+class AnalyticsTableModel extends AbstractTableModel {
+    private final String[] columns;
+    private List<AnalyticsRow> rows = Collections.emptyList();
+
+    public AnalyticsTableModel(String labelColumn) {
+        columns = new String[]{labelColumn, "Круизов", "Броней", "Продано мест", "Вместимость", "Загрузка", "Выручка (₽)"};
+    }
+
+    public void setRows(List<AnalyticsRow> rows) {
+        this.rows = rows;
+        fireTableDataChanged();
+    }
+
+    public int getRowCount() { return rows.size(); }
+    public int getColumnCount() { return columns.length; }
+    public String getColumnName(int column) { return columns[column]; }
+
+    public Object getValueAt(int row, int column) {
+        AnalyticsRow r = rows.get(row);
+        switch (column) {
+            case 0: return r.getLabel();
+            case 1: return r.getCruises();
+            case 2: return r.getBookings();
+            case 3: return r.getSeats();
+            case 4: return r.getSeats() + r.getAvailable();
+            case 5: return String.format("%.1f%%", r.getOccupancy() * 100);
+            case 6: return Money.format(r.getRevenueKop());
+            default: return null;
+        }
+    }
+}
+
+// ===================================================================
+// МОДЕЛЬ ТАБЛИЦЫ КРУИЗОВ
+// ===================================================================
+// Таблица читает ячейки прямо из списка круизов; форматирование выполняется
+// только для строк, которые JTable действительно отрисовывает.
+// Столбцы по порядку: ID, направление, дата, дней, цена, мест, статус
+// (можно передать меньше заголовков — лишние столбцы не показываются).
+class CruiseTableModel extends AbstractTableModel {
+    private final String[] columns;
+    private final boolean showKopecks;
+    private List<Cruise> cruises = Collections.emptyList();
+
+    public CruiseTableModel(String[] columns, boolean showKopecks) {
+        this.columns = columns;
+        this.showKopecks = showKopecks;
+    }
+
+    public void setCruises(List<Cruise> cruises) {
+        this.cruises = cruises;
+        fireTableDataChanged();
+    }
+
+    public Cruise getCruiseAt(int row) {
+        return cruises.get(row);
+    }
+
+    public int getRowCount() { return cruises.size(); }
+    public int getColumnCount() { return columns.length; }
+    public String getColumnName(int column) { return columns[column]; }
+
+    public Object getValueAt(int row, int column) {
+        Cruise c = cruises.get(row);
+        switch (column) {
+            case 0: return c.getId();
+            case 1: return c.getDestination();
+            case 2: return Dates.formatDay(c.getDeparture());
+            case 3: return c.getDurationDays();
+            case 4: return showKopecks ? Money.format(c.getPriceKop()) : Money.formatRubles(c.getPriceKop());
+            case 5: return c.getAvailableSeats();
+            default: return c.getAvailableSeats() > 0 ? "✅ Есть места" : "❌ Нет мест";
         }
     }
 }
@@ -933,21 +1466,181 @@ class BookingsDialog extends JDialog {
 // МОДЕЛЬНЫЕ КЛАССЫ
 // ===================================================================
 
+// Деньги — целое число копеек в long. Арифметика идёт над примитивами без объектов,
+// переполнение не замалчивается (multiplyExact). Форматирование пишет прямо
+// в StringBuilder с разделителями текущей локали, как прежний "%,.2f".
+final class Money {
+    private static final char GROUPING = java.text.DecimalFormatSymbols.getInstance().getGroupingSeparator();
+    private static final char DECIMAL = java.text.DecimalFormatSymbols.getInstance().getDecimalSeparator();
+
+    private Money() {
+    }
+
+    public static long ofRubles(long rubles) {
+        return Math.multiplyExact(rubles, 100);
+    }
+
+    // Для значений из полей ввода: округление до копейки
+    public static long ofRubles(double rubles) {
+        return Math.round(rubles * 100);
+    }
+
+    // "145000", "145 000,50", "145000.5" -> копейки; больше двух знаков после запятой — ошибка
+    public static long parse(String text) {
+        String s = text.trim().replace(" ", "").replace("\u00A0", "").replace("\u202F", "").replace(',', '.');
+        try {
+            return new java.math.BigDecimal(s).movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Сумма с долями копейки: " + text);
+        }
+    }
+
+    public static double toRubles(long kop) {
+        return kop / 100.0;
+    }
+
+    public static long times(long kop, int count) {
+        return Math.multiplyExact(kop, count);
+    }
+
+    // "1 234,56" (с группировкой и копейками)
+    public static String format(long kop) {
+        return appendTo(new StringBuilder(24), kop, true).toString();
+    }
+
+    // "1 235" (округление до рубля, половина — вверх)
+    public static String formatRubles(long kop) {
+        return appendTo(new StringBuilder(20), kop, false).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder sb, long kop, boolean withKopecks) {
+        if (kop < 0) {
+            sb.append('-');
+            kop = -kop;
+        }
+        if (withKopecks) {
+            appendGrouped(sb, kop / 100);
+            sb.append(DECIMAL);
+            appendTwoDigits(sb, (int) (kop % 100));
+        } else {
+            appendGrouped(sb, (kop + 50) / 100);
+        }
+        return sb;
+    }
+
+    // Без группировки, с заданным разделителем копеек — для CSV
+    public static StringBuilder appendPlain(StringBuilder sb, long kop, char decimalSeparator) {
+        if (kop < 0) {
+            sb.append('-');
+            kop = -kop;
+        }
+        sb.append(kop / 100).append(decimalSeparator);
+        return appendTwoDigits(sb, (int) (kop % 100));
+    }
+
+    private static void appendGrouped(StringBuilder sb, long value) {
+        if (value < 1000) {
+            sb.append(value);
+            return;
+        }
+        appendGrouped(sb, value / 1000);
+        int rest = (int) (value % 1000);
+        sb.append(GROUPING);
+        if (rest < 100) sb.append('0');
+        if (rest < 10) sb.append('0');
+        sb.append(rest);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        if (value < 10) sb.append('0');
+        return sb.append(value);
+    }
+}
+
+// Даты в модели — Instant (в базе миллисекунды эпохи), на экране — в поясе системы.
+// Форматтеры неизменяемы и общие для всех потоков. Строки дней кэшируются по номеру
+// дня: отправлений в каталоге немного, а форматируются они на каждой отрисовке.
+final class Dates {
+    static final ZoneId ZONE = ZoneId.systemDefault();
+    // STRICT: 31.02.2026 — ошибка разбора, а не 28.02
+    static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("dd.MM.uuuu")
+            .withResolverStyle(java.time.format.ResolverStyle.STRICT);
+    static final DateTimeFormatter DAY_TIME = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm").withZone(ZONE);
+
+    private static final java.time.zone.ZoneRules RULES = ZONE.getRules();
+    private static final int DAY_CACHE_LIMIT = 1 << 16;
+    private static final Map<Long, String> dayCache = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private Dates() {
+    }
+
+    public static LocalDate toLocalDate(Instant instant) {
+        return LocalDate.ofInstant(instant, ZONE);
+    }
+
+    public static Instant startOfDay(int year, int month, int day) {
+        return LocalDate.of(year, month, day).atStartOfDay(ZONE).toInstant();
+    }
+
+    // "dd.MM.yyyy" -> начало этого дня в поясе системы
+    public static Instant parseDay(String text) {
+        return LocalDate.parse(text, DAY).atStartOfDay(ZONE).toInstant();
+    }
+
+    public static String formatDay(Instant instant) {
+        return formatDay(instant.toEpochMilli());
+    }
+
+    public static String formatDay(long epochMillis) {
+        long day = Math.floorDiv(localSeconds(epochMillis), 86_400);
+        String text = dayCache.get(day);
+        if (text == null) {
+            text = DAY.format(LocalDate.ofEpochDay(day));
+            if (dayCache.size() < DAY_CACHE_LIMIT) dayCache.put(day, text);
+        }
+        return text;
+    }
+
+    public static String formatDateTime(long epochMillis) {
+        return DAY_TIME.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    // "dd.MM.yyyy HH:mm:ss" прямо в буфер: день из кэша, время — арифметикой
+    public static void appendDateTime(StringBuilder sb, long epochMillis) {
+        int secondOfDay = Math.floorMod(localSeconds(epochMillis), 86_400);
+        sb.append(formatDay(epochMillis)).append(' ');
+        appendTwoDigits(sb, secondOfDay / 3600).append(':');
+        appendTwoDigits(sb, secondOfDay / 60 % 60).append(':');
+        appendTwoDigits(sb, secondOfDay % 60);
+    }
+
+    // Секунды местного времени от эпохи (с учётом смещения пояса на этот момент)
+    private static long localSeconds(long epochMillis) {
+        long seconds = Math.floorDiv(epochMillis, 1000);
+        return seconds + RULES.getOffset(Instant.ofEpochSecond(seconds)).getTotalSeconds();
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        if (value < 10) sb.append('0');
+        return sb.append(value);
+    }
+}
+
 class Cruise {
     private int id;
     private String destination;
-    private Date departure;
+    private Instant departure;
     private int durationDays;
-    private double pricePerPerson;
+    private long priceKop;
     private int availableSeats;
 
-    public Cruise(int id, String destination, Date departure, int durationDays,
-                  double pricePerPerson, int availableSeats) {
+    public Cruise(int id, String destination, Instant departure, int durationDays,
+                  long priceKop, int availableSeats) {
         this.id = id;
         this.destination = destination;
         this.departure = departure;
         this.durationDays = durationDays;
-        this.pricePerPerson = pricePerPerson;
+        this.priceKop = priceKop;
         this.availableSeats = availableSeats;
     }
 
@@ -957,22 +1650,19 @@ class Cruise {
     public String getDestination() { return destination; }
     public void setDestination(String destination) { this.destination = destination; }
 
-    public Date getDeparture() { return departure; }
-    public void setDeparture(Date departure) { this.departure = departure; }
+    public Instant getDeparture() { return departure; }
+    public void setDeparture(Instant departure) { this.departure = departure; }
 
     public int getDurationDays() { return durationDays; }
     public void setDurationDays(int durationDays) { this.durationDays = durationDays; }
 
-    public double getPricePerPerson() { return pricePerPerson; }
-    public void setPricePerPerson(double pricePerPerson) { this.pricePerPerson = pricePerPerson; }
+    // Цена за человека в копейках
+    public long getPriceKop() { return priceKop; }
+    public void setPriceKop(long priceKop) { this.priceKop = priceKop; }
 
     public int getAvailableSeats() { return availableSeats; }
     public void setAvailableSeats(int availableSeats) { this.availableSeats = availableSeats; }
 
-    public void decrementAvailableSeats(int seats) {
-        this.availableSeats -= seats;
-    }
-
     public void incrementAvailableSeats(int seats) {
         this.availableSeats += seats;
     }
@@ -984,10 +1674,10 @@ class Booking {
     private Cruise cruise;
     private int seats;
     private String contact;
-    private Date bookingDate;
+    private Instant bookingDate;
     private String customerName;
 
-    public Booking(int id, int userId, Cruise cruise, int seats, String contact, Date bookingDate) {
+    public Booking(int id, int userId, Cruise cruise, int seats, String contact, Instant bookingDate) {
         this.id = id;
         this.userId = userId;
         this.cruise = cruise;
@@ -1011,51 +1701,639 @@ class Booking {
     public String getContact() { return contact; }
     public void setContact(String contact) { this.contact = contact; }
 
-    public Date getBookingDate() { return bookingDate; }
-    public void setBookingDate(Date bookingDate) { this.bookingDate = bookingDate; }
+    public Instant getBookingDate() { return bookingDate; }
+    public void setBookingDate(Instant bookingDate) { this.bookingDate = bookingDate; }
 
     public String getCustomerName() { return customerName; }
     public void setCustomerName(String customerName) { this.customerName = customerName; }
 }
 
-class User {
-    private int id;
-    private String username;
-    private String fullname;
-    private boolean isAdmin;
-
-    public User(int id, String username, String fullname, boolean isAdmin) {
+// Строка списка «Мои бронирования»: только то, что показывает таблица
+class BookingRow {
+    private final int id;
+    private final int cruiseId;
+    private final String destination;
+    private final long departure;
+    private final int seats;
+    private final String contact;
+    private final long bookingDate;
+    private final long totalKop;
+
+    public BookingRow(int id, int cruiseId, String destination, long departure, int seats,
+                      String contact, long bookingDate, long totalKop) {
         this.id = id;
-        this.username = username;
-        this.fullname = fullname;
-        this.isAdmin = isAdmin;
+        this.cruiseId = cruiseId;
+        this.destination = destination;
+        this.departure = departure;
+        this.seats = seats;
+        this.contact = contact;
+        this.bookingDate = bookingDate;
+        this.totalKop = totalKop;
     }
 
     public int getId() { return id; }
-    public String getUsername() { return username; }
-    public String getFullname() { return fullname; }
-    public boolean isAdmin() { return isAdmin; }
-}
+    public int getCruiseId() { return cruiseId; }
+    public String getDestination() { return destination; }
+    public long getDeparture() { return departure; }
+    public int getSeats() { return seats; }
+    public String getContact() { return contact; }
+    public long getBookingDate() { return bookingDate; }
+    public long getTotalKop() { return totalKop; }
+}
+
+// Строка аналитики: круиз, направление или месяц с готовыми суммами из агрегатов
+class AnalyticsRow {
+    private final String label;
+    private final int cruises;
+    private final long bookings;
+    private final long seats;
+    private final long available;
+    private final long revenueKop;
+
+    public AnalyticsRow(String label, int cruises, long bookings, long seats, long available, long revenueKop) {
+        this.label = label;
+        this.cruises = cruises;
+        this.bookings = bookings;
+        this.seats = seats;
+        this.available = available;
+        this.revenueKop = revenueKop;
+    }
+
+    public String getLabel() { return label; }
+    public int getCruises() { return cruises; }
+    public long getBookings() { return bookings; }
+    public long getSeats() { return seats; }
+    public long getAvailable() { return available; }
+    public long getRevenueKop() { return revenueKop; }
+
+    // Доля проданных мест от вместимости (продано + свободно)
+    public double getOccupancy() {
+        long capacity = seats + available;
+        return capacity == 0 ? 0 : (double) seats / capacity;
+    }
+}
+
+class User {
+    private int id;
+    private String username;
+    private String fullname;
+    private boolean isAdmin;
+
+    public User(int id, String username, String fullname, boolean isAdmin) {
+        this.id = id;
+        this.username = username;
+        this.fullname = fullname;
+        this.isAdmin = isAdmin;
+    }
+
+    public int getId() { return id; }
+    public String getUsername() { return username; }
+    public String getFullname() { return fullname; }
+    public boolean isAdmin() { return isAdmin; }
+}
+
+// ===================================================================
+// ХЕШИРОВАНИЕ ПАРОЛЕЙ
+// Формат в users.password: "pbkdf2$<итерации>$<соль hex>$<хеш hex>".
+// Старые записи — голый SHA-256 в hex; они проверяются по-старому и
+// перехешируются при первом удачном входе.
+// ===================================================================
+final class Passwords {
+    // Стоимость задаётся -Dcruise.pbkdf2.iterations=N
+    public static final int DEFAULT_ITERATIONS = Integer.getInteger("cruise.pbkdf2.iterations", 310_000);
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final java.security.SecureRandom RANDOM = new java.security.SecureRandom();
+
+    private Passwords() {
+    }
+
+    public static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return PREFIX + iterations + '$' + toHex(salt) + '$' + toHex(pbkdf2(password, salt, iterations));
+    }
+
+    // Сравнение за постоянное время: MessageDigest.isEqual не выходит на первом несовпавшем байте.
+    // Испорченная строка хеша — просто неверный пароль, а не исключение
+    public static boolean verify(String password, String stored) {
+        if (stored == null) return false;
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(sha256(password), fromHex(stored));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) return false;
+        byte[] expected = fromHex(parts[3]);
+        byte[] salt = fromHex(parts[2]);
+        int iterations = parseIterations(parts[1]);
+        if (expected.length == 0 || salt.length == 0 || iterations <= 0) return false;
+        return MessageDigest.isEqual(pbkdf2(password, salt, iterations), expected);
+    }
+
+    // Старый SHA-256, испорченная строка или PBKDF2 с меньшей стоимостью, чем настроенная сейчас
+    public static boolean needsRehash(String stored, int iterations) {
+        if (stored == null || !stored.startsWith(PREFIX)) return true;
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4 || fromHex(parts[2]).length == 0 || fromHex(parts[3]).length == 0) return true;
+        int current = parseIterations(parts[1]);
+        return current <= 0 || current < iterations;
+    }
+
+    // -1, если стоимость в строке хеша не число
+    private static int parseIterations(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Хеш в прежнем формате; нужен только для совместимости и сравнения в бенчмарке
+    public static String legacyHash(String password) {
+        return toHex(sha256(password));
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    public static byte[] fromHex(String hex) {
+        if ((hex.length() & 1) != 0) return new byte[0];
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) return new byte[0];
+            bytes[i] = (byte) (hi << 4 | lo);
+        }
+        return bytes;
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        javax.crypto.spec.PBEKeySpec spec =
+                new javax.crypto.spec.PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return javax.crypto.SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (java.security.GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] sha256(String input) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
+
+// ===================================================================
+// СЕССИИ ВОШЕДШИХ ПОЛЬЗОВАТЕЛЕЙ
+// Пароль проверяется один раз при входе; дальше права берутся по токену из памяти.
+// Сессия истекает после простоя дольше idleTimeoutMs.
+// ===================================================================
+class SessionStore {
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 60_000L;
+
+    private static final java.security.SecureRandom RANDOM = new java.security.SecureRandom();
+
+    private final Map<String, Session> sessions = new java.util.concurrent.ConcurrentHashMap<>();
+    private final long idleTimeoutMs;
+
+    public SessionStore(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public String open(User user) {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+        String token = Passwords.toHex(bytes);
+        sessions.put(token, new Session(user, System.currentTimeMillis()));
+        return token;
+    }
+
+    // null — нет такой сессии или она истекла
+    public User get(String token) {
+        if (token == null) return null;
+        Session s = sessions.get(token);
+        if (s == null) return null;
+        long now = System.currentTimeMillis();
+        if (now - s.lastAccess > idleTimeoutMs) {
+            sessions.remove(token, s);
+            return null;
+        }
+        s.lastAccess = now;
+        return s.user;
+    }
+
+    public boolean isAdmin(String token) {
+        User u = get(token);
+        return u != null && u.isAdmin();
+    }
+
+    public void close(String token) {
+        if (token != null) sessions.remove(token);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private static class Session {
+        final User user;
+        volatile long lastAccess;
+
+        Session(User user, long lastAccess) {
+            this.user = user;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
+
+// ===================================================================
+// ПУЛ СОЕДИНЕНИЙ SQLite
+// ===================================================================
+class ConnectionPool {
+    public static final int STATEMENT_CACHE_SIZE = 32;
+
+    private final String url;
+    private final Properties props;
+    private final int maxSize;
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String url, int maxSize) {
+        this.url = url;
+        this.maxSize = maxSize;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+
+        // Прагмы применяются драйвером один раз при открытии соединения
+        props = new Properties();
+        props.setProperty("journal_mode", "WAL");
+        props.setProperty("synchronous", "NORMAL");
+        props.setProperty("busy_timeout", "5000");
+        props.setProperty("temp_store", "MEMORY");
+        props.setProperty("cache_size", "-16000");
+        // Транзакции сразу берут блокировку записи, без гонки при её повышении
+        props.setProperty("transaction_mode", "IMMEDIATE");
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Пул соединений закрыт");
+
+        PooledConnection pc = idle.poll();
+        if (pc == null) {
+            pc = openIfAllowed();
+        }
+        if (pc == null) {
+            try {
+                pc = idle.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Ожидание соединения прервано", e);
+            }
+        }
+        return pc.lease();
+    }
+
+    private synchronized PooledConnection openIfAllowed() throws SQLException {
+        if (all.size() >= maxSize) return null;
+        PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, props));
+        all.add(pc);
+        return pc;
+    }
+
+    private void release(PooledConnection pc) {
+        try {
+            if (!pc.physical.getAutoCommit()) {
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        if (closed) {
+            pc.closeQuietly();
+        } else {
+            idle.offer(pc);
+        }
+    }
+
+    public long getStatementCacheHits() { return statementHits.get(); }
+    public long getStatementCacheMisses() { return statementMisses.get(); }
+
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection pc : all) {
+            pc.closeQuietly();
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    // Физическое соединение вместе с его кэшем подготовленных выражений
+    private class PooledConnection {
+        private final Connection physical;
+        // Выданные за текущую аренду выражения из кэша: SQL -> обёртка
+        private final Map<String, CachedStatement> inUse = new HashMap<>();
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE || inUse.containsKey(eldest.getKey())) return false;
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                };
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        // Выдаёт обёртку, у которой close() возвращает соединение в пул
+        Connection lease() {
+            InvocationHandler handler = new InvocationHandler() {
+                private boolean released = false;
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!released) {
+                                released = true;
+                                returnStatements();
+                                release(PooledConnection.this);
+                            }
+                            return null;
+                        case "isClosed":
+                            return released || physical.isClosed();
+                        default:
+                            if (released) throw new SQLException("Соединение уже возвращено в пул");
+                            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                                return prepareCached((Connection) proxy, (String) args[0]);
+                            }
+                            return invokeOn(physical, method, args);
+                    }
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        }
+
+        private PreparedStatement prepareCached(Connection owner, String sql) throws SQLException {
+            // Выражение уже занято (вложенное использование) — готовим отдельное, без кэша
+            if (inUse.containsKey(sql)) {
+                statementMisses.incrementAndGet();
+                return physical.prepareStatement(sql);
+            }
+
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                statementMisses.incrementAndGet();
+                ps = physical.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                statementHits.incrementAndGet();
+            }
+            CachedStatement handle = new CachedStatement(owner, sql, ps);
+            inUse.put(sql, handle);
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, handle);
+        }
+
+        // Незакрытые вызывающим выражения возвращаются в кэш вместе с соединением,
+        // иначе их SQL навсегда остался бы занятым и больше не кэшировался
+        private void returnStatements() {
+            for (CachedStatement handle : new ArrayList<>(inUse.values())) {
+                System.err.println("Выражение не закрыто до возврата соединения в пул: " + handle.sql);
+                try {
+                    handle.giveBack();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            inUse.clear();
+        }
+
+        // close() не закрывает выражение, а сбрасывает его и возвращает в кэш
+        private class CachedStatement implements InvocationHandler {
+            private final Connection owner;
+            private final String sql;
+            private final PreparedStatement ps;
+            private boolean returned = false;
+            private ResultSet current;
+
+            CachedStatement(Connection owner, String sql, PreparedStatement ps) {
+                this.owner = owner;
+                this.sql = sql;
+                this.ps = ps;
+            }
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        giveBack();
+                        return null;
+                    case "isClosed":
+                        return returned || ps.isClosed();
+                    case "getConnection":
+                        return owner;
+                    case "executeQuery":
+                        if (returned) throw new SQLException("Выражение уже закрыто");
+                        resetCurrent();
+                        current = (ResultSet) invokeOn(ps, method, args);
+                        return current;
+                    default:
+                        if (returned) throw new SQLException("Выражение уже закрыто");
+                        return invokeOn(ps, method, args);
+                }
+            }
+
+            void giveBack() throws SQLException {
+                if (returned) return;
+                returned = true;
+                inUse.remove(sql);
+                resetCurrent();
+                ps.clearParameters();
+                ps.clearBatch();
+            }
+
+            private void resetCurrent() throws SQLException {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+            }
+        }
+
+        void closeQuietly() {
+            for (PreparedStatement ps : statements.values()) {
+                closeStatement(ps);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void closeStatement(PreparedStatement ps) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
 
 // ===================================================================
 // DBHelper - РАБОТА С БАЗОЙ ДАННЫХ
 // ===================================================================
+// Подписчик на изменения каталога, о которых DBHelper сообщает после успешной записи
+interface CatalogListener {
+    void cruiseSaved(Cruise cruise);
+    void cruiseDeleted(int cruiseId);
+    void seatsChanged(int cruiseId, int delta);
+}
+
+// Ход выгрузки: сколько строк записано из ожидаемых; false — прервать выгрузку
+interface ExportProgress {
+    boolean onProgress(long rowsWritten, long totalRows);
+}
+
+// Форматирование полей CSV без промежуточных объектов (даты — в локальном поясе,
+// сумма — с двумя знаками и десятичным разделителем текущей локали, как у %.2f)
+class CsvRowFormatter {
+    private final char decimalSeparator = java.text.DecimalFormatSymbols.getInstance().getDecimalSeparator();
+
+    void appendDate(StringBuilder sb, long millis) {
+        sb.append(Dates.formatDay(millis));
+    }
+
+    void appendDateTime(StringBuilder sb, long millis) {
+        Dates.appendDateTime(sb, millis);
+    }
+
+    void appendAmount(StringBuilder sb, long kop) {
+        Money.appendPlain(sb, kop, decimalSeparator);
+    }
+}
+
 class DBHelper {
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final int BOOKING_NO_SEATS = -1;
+    public static final int BOOKING_FAILED = -2;
+    // Строк на один executeBatch при пакетной вставке
+    public static final int INSERT_BATCH_SIZE = 1_000;
+
     private String url;
+    private ConnectionPool pool;
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile BookingJournal journal;
+    private volatile int passwordIterations = Passwords.DEFAULT_ITERATIONS;
+    // Хеш для несуществующего имени: вход с чужим логином занимает столько же, сколько с верным.
+    // Считается при первом таком входе (и заново после смены стоимости), а не в конструкторе
+    private volatile DummyHash dummyHash;
+
+    private static class DummyHash {
+        final int iterations;
+        final String hash;
+
+        DummyHash(int iterations, String hash) {
+            this.iterations = iterations;
+            this.hash = hash;
+        }
+    }
 
     public DBHelper(String url) {
+        this(url, DEFAULT_POOL_SIZE);
+    }
+
+    // poolSize <= 0 — без пула, новое соединение на каждый вызов
+    public DBHelper(String url, int poolSize) {
         this.url = url;
         try {
             Class.forName("org.sqlite.JDBC");
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
+        if (poolSize > 0) {
+            pool = new ConnectionPool(url, poolSize);
+        }
     }
 
     private Connection getConnection() throws SQLException {
+        if (pool != null) {
+            return pool.borrow();
+        }
         return DriverManager.getConnection(url);
     }
 
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    // Стоимость PBKDF2 для новых и перехешируемых паролей
+    public void setPasswordIterations(int iterations) {
+        this.passwordIterations = iterations;
+    }
+
+    private String dummyHash() {
+        int iterations = passwordIterations;
+        DummyHash dummy = dummyHash;
+        if (dummy == null || dummy.iterations != iterations) {
+            dummy = new DummyHash(iterations, Passwords.hash("", iterations));
+            dummyHash = dummy;
+        }
+        return dummy.hash;
+    }
+
+    // Журнал аудита: каждая зафиксированная бронь и отмена дописывается в него после commit
+    public void setJournal(BookingJournal journal) {
+        this.journal = journal;
+    }
+
+    public void addCatalogListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    private void fireCruiseSaved(Cruise cruise) {
+        for (CatalogListener l : listeners) l.cruiseSaved(cruise);
+    }
+
+    public long getStatementCacheHits() {
+        return pool != null ? pool.getStatementCacheHits() : 0;
+    }
+
+    public long getStatementCacheMisses() {
+        return pool != null ? pool.getStatementCacheMisses() : 0;
+    }
+
     public void initDatabase() {
         String createUsersTable = "CREATE TABLE IF NOT EXISTS users (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
@@ -1090,6 +2368,8 @@ class DBHelper {
             stmt.execute(createCruisesTable);
             stmt.execute(createBookingsTable);
 
+            migrate(conn);
+
             // Создание администратора по умолчанию
             String checkAdmin = "SELECT COUNT(*) FROM users WHERE username = 'admin'";
             ResultSet rs = stmt.executeQuery(checkAdmin);
@@ -1097,7 +2377,7 @@ class DBHelper {
                 String insertAdmin = "INSERT INTO users (username, password, fullname, is_admin) VALUES (?, ?, ?, 1)";
                 try (PreparedStatement ps = conn.prepareStatement(insertAdmin)) {
                     ps.setString(1, "admin");
-                    ps.setString(2, hash("admin123"));
+                    ps.setString(2, Passwords.hash("admin123", passwordIterations));
                     ps.setString(3, "Администратор");
                     ps.executeUpdate();
                 }
@@ -1115,58 +2395,228 @@ class DBHelper {
         }
     }
 
-    private void insertSampleCruises() {
-        String sql = "INSERT INTO cruises (destination, departure, duration, price, available_seats) VALUES (?, ?, ?, ?, ?)";
-        try (Connection conn = getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+    // Общие столбцы агрегатов по направлению и по месяцу
+    private static final String STATS_COLUMNS = "cruises INTEGER NOT NULL DEFAULT 0, " +
+            "bookings INTEGER NOT NULL DEFAULT 0, seats INTEGER NOT NULL DEFAULT 0, " +
+            "available INTEGER NOT NULL DEFAULT 0, revenue_kop INTEGER NOT NULL DEFAULT 0";
+
+    // Миграции схемы: элемент i переводит базу с версии i на версию i + 1.
+    // Текущая версия хранится в самой базе (PRAGMA user_version).
+    private static final String[][] MIGRATIONS = {
+            // 1: выборки броней пользователя и удаление броней круиза
+            {
+                    "CREATE INDEX IF NOT EXISTS idx_bookings_user_date ON bookings(user_id, booking_date)",
+                    "CREATE INDEX IF NOT EXISTS idx_bookings_cruise ON bookings(cruise_id)"
+            },
+            // 2: сортировка и фильтрация каталога
+            {
+                    "CREATE INDEX IF NOT EXISTS idx_cruises_departure ON cruises(departure)",
+                    "CREATE INDEX IF NOT EXISTS idx_cruises_price ON cruises(price)"
+            },
+            // 3: экспорт броней идёт по дате без сортировки во временной таблице
+            {
+                    "CREATE INDEX IF NOT EXISTS idx_bookings_date ON bookings(booking_date)"
+            },
+            // 4: цена в копейках (INTEGER) вместо REAL
+            {
+                    "ALTER TABLE cruises ADD COLUMN price_kop INTEGER NOT NULL DEFAULT 0",
+                    "UPDATE cruises SET price_kop = CAST(ROUND(price * 100) AS INTEGER)",
+                    "DROP INDEX IF EXISTS idx_cruises_price",
+                    "ALTER TABLE cruises DROP COLUMN price",
+                    "CREATE INDEX IF NOT EXISTS idx_cruises_price_kop ON cruises(price_kop)"
+            },
+            // 5: агрегаты для аналитики — ведутся триггерами на каждую бронь, отмену и правку круиза.
+            // Выручка, как в экспорте, — места × текущая цена круиза.
+            concat(new String[]{
+                    "CREATE TABLE stats_cruise (cruise_id INTEGER PRIMARY KEY, " +
+                            "bookings INTEGER NOT NULL DEFAULT 0, seats INTEGER NOT NULL DEFAULT 0, " +
+                            "revenue_kop INTEGER NOT NULL DEFAULT 0)",
+                    "CREATE INDEX idx_stats_cruise_revenue ON stats_cruise(revenue_kop)",
+                    "CREATE TABLE stats_destination (destination TEXT PRIMARY KEY, " + STATS_COLUMNS + ")",
+                    "CREATE INDEX idx_stats_destination_revenue ON stats_destination(revenue_kop)",
+                    "CREATE TABLE stats_month (month TEXT PRIMARY KEY, " + STATS_COLUMNS + ")",
+
+                    "INSERT INTO stats_cruise (cruise_id, bookings, seats, revenue_kop) " +
+                            "SELECT c.id, COUNT(b.id), IFNULL(SUM(b.seats), 0), IFNULL(SUM(b.seats), 0) * c.price_kop " +
+                            "FROM cruises c LEFT JOIN bookings b ON b.cruise_id = c.id GROUP BY c.id"
+            }, statsGroups(5), statsTriggers(5)),
+            // 6: месяц — в UTC, чтобы группы не зависели от пояса машины, которая пишет в базу;
+            // опустевшие группы удаляются триггерами. Триггеры пересоздаются, группы пересчитываются.
+            // Текст миграции 5 не меняется: базы, уже перешедшие на неё, исправляет эта миграция
+            concat(new String[]{
+                    "DROP TRIGGER IF EXISTS trg_stats_booking_insert",
+                    "DROP TRIGGER IF EXISTS trg_stats_booking_delete",
+                    "DROP TRIGGER IF EXISTS trg_stats_booking_update",
+                    "DROP TRIGGER IF EXISTS trg_stats_cruise_insert",
+                    "DROP TRIGGER IF EXISTS trg_stats_cruise_delete",
+                    "DROP TRIGGER IF EXISTS trg_stats_cruise_seats",
+                    "DROP TRIGGER IF EXISTS trg_stats_cruise_update",
+                    "DELETE FROM stats_destination",
+                    "DELETE FROM stats_month"
+            }, statsGroups(6), statsTriggers(6))
+    };
+
+    // Миграция, собранная из нескольких наборов команд
+    private static String[] concat(String[]... parts) {
+        return Arrays.stream(parts).flatMap(Arrays::stream).toArray(String[]::new);
+    }
 
-            SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
+    // Пересчёт агрегатов по направлению и по месяцу из stats_cruise в том виде, как их ведёт схема version
+    private static String[] statsGroups(int version) {
+        return new String[]{
+                "INSERT INTO stats_destination " +
+                        "SELECT c.destination, COUNT(*), SUM(s.bookings), SUM(s.seats), SUM(c.available_seats), " +
+                        "SUM(s.revenue_kop) FROM cruises c JOIN stats_cruise s ON s.cruise_id = c.id " +
+                        "GROUP BY c.destination",
+                "INSERT INTO stats_month " +
+                        "SELECT " + month("c.departure", version) + ", COUNT(*), SUM(s.bookings), SUM(s.seats), " +
+                        "SUM(c.available_seats), SUM(s.revenue_kop) " +
+                        "FROM cruises c JOIN stats_cruise s ON s.cruise_id = c.id GROUP BY 1"
+        };
+    }
 
-            ps.setString(1, "Средиземное море (Италия, Франция, Испания)");
-            ps.setLong(2, sdf.parse("15.06.2026").getTime());
-            ps.setInt(3, 10);
-            ps.setDouble(4, 145000);
-            ps.setInt(5, 150);
-            ps.executeUpdate();
+    // Триггеры, которые ведут агрегаты на каждую бронь, отмену и правку круиза (схема version)
+    private static String[] statsTriggers(int version) {
+        return new String[]{
+                "CREATE TRIGGER trg_stats_booking_insert AFTER INSERT ON bookings BEGIN " +
+                        bookingDelta("NEW", "+", version) + " END",
+                "CREATE TRIGGER trg_stats_booking_delete AFTER DELETE ON bookings BEGIN " +
+                        bookingDelta("OLD", "-", version) + " END",
+                "CREATE TRIGGER trg_stats_booking_update AFTER UPDATE OF cruise_id, seats ON bookings BEGIN " +
+                        bookingDelta("OLD", "-", version) + bookingDelta("NEW", "+", version) + " END",
+
+                "CREATE TRIGGER trg_stats_cruise_insert AFTER INSERT ON cruises BEGIN " +
+                        "INSERT OR IGNORE INTO stats_cruise (cruise_id) VALUES (NEW.id); " +
+                        cruiseDelta("NEW", "+", version) + " END",
+                "CREATE TRIGGER trg_stats_cruise_delete AFTER DELETE ON cruises BEGIN " +
+                        cruiseDelta("OLD", "-", version) +
+                        "DELETE FROM stats_cruise WHERE cruise_id = OLD.id; END",
+                // Бронь и отмена меняют только available_seats — дешёвый путь без перестановки групп
+                "CREATE TRIGGER trg_stats_cruise_seats AFTER UPDATE OF available_seats ON cruises " +
+                        "WHEN OLD.destination IS NEW.destination AND OLD.departure IS NEW.departure " +
+                        "AND OLD.price_kop IS NEW.price_kop BEGIN " +
+                        "UPDATE stats_destination SET available = available + NEW.available_seats - OLD.available_seats " +
+                        "WHERE destination = NEW.destination; " +
+                        "UPDATE stats_month SET available = available + NEW.available_seats - OLD.available_seats " +
+                        "WHERE month = " + month("NEW.departure", version) + "; END",
+                "CREATE TRIGGER trg_stats_cruise_update AFTER UPDATE ON cruises " +
+                        "WHEN OLD.destination IS NOT NEW.destination OR OLD.departure IS NOT NEW.departure " +
+                        "OR OLD.price_kop IS NOT NEW.price_kop BEGIN " +
+                        cruiseDelta("OLD", "-", version) + cruiseDelta("NEW", "+", version) +
+                        "UPDATE stats_cruise SET revenue_kop = seats * NEW.price_kop WHERE cruise_id = NEW.id; END"
+        };
+    }
 
-            ps.setString(1, "Балтийское море (Санкт-Петербург, Таллин, Стокгольм)");
-            ps.setLong(2, sdf.parse("01.07.2026").getTime());
-            ps.setInt(3, 7);
-            ps.setDouble(4, 89000);
-            ps.setInt(5, 80);
-            ps.executeUpdate();
+    // Месяц отправления "yyyy-MM": в схеме 5 — в поясе пишущей машины, с 6 — в UTC.
+    // SQLite знает только UTC и 'localtime' процесса, а в базу пишут и приложение, и консольные
+    // утилиты на разных машинах; Dates.ZONE у каждой своя, поэтому общая граница месяца — UTC
+    private static String month(String departure, int version) {
+        return "strftime('%Y-%m', " + departure + " / 1000, 'unixepoch'" + (version < 6 ? ", 'localtime')" : ")");
+    }
 
-            ps.setString(1, "Норвежские фьорды");
-            ps.setLong(2, sdf.parse("10.08.2026").getTime());
-            ps.setInt(3, 8);
-            ps.setDouble(4, 156000);
-            ps.setInt(5, 60);
-            ps.executeUpdate();
+    // Тело триггера: бронь row (NEW/OLD) добавляется (+) или вычитается (-) из агрегатов своего круиза
+    private static String bookingDelta(String row, String sign, int version) {
+        String cruise = "(SELECT %s FROM cruises WHERE id = " + row + ".cruise_id)";
+        String set = "bookings = bookings " + sign + " 1, seats = seats " + sign + " " + row + ".seats, " +
+                "revenue_kop = revenue_kop " + sign + " " + row + ".seats * " + String.format(cruise, "price_kop");
+        return "INSERT OR IGNORE INTO stats_cruise (cruise_id) VALUES (" + row + ".cruise_id); " +
+                "UPDATE stats_cruise SET " + set + " WHERE cruise_id = " + row + ".cruise_id; " +
+                "UPDATE stats_destination SET " + set + " WHERE destination = " +
+                String.format(cruise, "destination") + "; " +
+                "UPDATE stats_month SET " + set + " WHERE month = " +
+                String.format(cruise, month("departure", version)) + "; ";
+    }
 
-            ps.setString(1, "Карибский бассейн");
-            ps.setLong(2, sdf.parse("20.12.2026").getTime());
-            ps.setInt(3, 12);
-            ps.setDouble(4, 234000);
-            ps.setInt(5, 200);
-            ps.executeUpdate();
+    // Тело триггера: круиз row целиком со своими бронями входит (+) в группы направления и месяца или выходит (-)
+    private static String cruiseDelta(String row, String sign, int version) {
+        String booked = "IFNULL((SELECT %s FROM stats_cruise WHERE cruise_id = " + row + ".id), 0)";
+        String set = "cruises = cruises " + sign + " 1, " +
+                "bookings = bookings " + sign + " " + String.format(booked, "bookings") + ", " +
+                "seats = seats " + sign + " " + String.format(booked, "seats") + ", " +
+                "available = available " + sign + " " + row + ".available_seats, " +
+                "revenue_kop = revenue_kop " + sign + " " + String.format(booked, "seats") + " * " + row + ".price_kop";
+        String insert = sign.equals("+")
+                ? "INSERT OR IGNORE INTO stats_destination (destination) VALUES (" + row + ".destination); " +
+                  "INSERT OR IGNORE INTO stats_month (month) VALUES (" + month(row + ".departure", version) + "); "
+                : "";
+        // С версии 6 опустевшая группа удаляется
+        String prune = sign.equals("-") && version >= 6
+                ? "DELETE FROM stats_destination WHERE destination = " + row + ".destination AND cruises = 0; " +
+                  "DELETE FROM stats_month WHERE month = " + month(row + ".departure", version) + " AND cruises = 0; "
+                : "";
+        return insert +
+                "UPDATE stats_destination SET " + set + " WHERE destination = " + row + ".destination; " +
+                "UPDATE stats_month SET " + set + " WHERE month = " + month(row + ".departure", version) + "; " +
+                prune;
+    }
 
-            ps.setString(1, "Аляска (ледники)");
-            ps.setLong(2, sdf.parse("05.09.2026").getTime());
-            ps.setInt(3, 9);
-            ps.setDouble(4, 189000);
-            ps.setInt(5, 45);
-            ps.executeUpdate();
+    private void migrate(Connection conn) throws SQLException {
+        int version = readSchemaVersion(conn);
 
-            ps.setString(1, "Япония (Токио, Осака, Хоккайдо)");
-            ps.setLong(2, sdf.parse("10.10.2026").getTime());
-            ps.setInt(3, 11);
-            ps.setDouble(4, 278000);
-            ps.setInt(5, 120);
-            ps.executeUpdate();
+        for (int v = version; v < MIGRATIONS.length; v++) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : MIGRATIONS[v]) {
+                    stmt.execute(sql);
+                }
+                stmt.execute("PRAGMA user_version = " + (v + 1));
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
 
-        } catch (Exception e) {
+    private int readSchemaVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public int getSchemaVersion() {
+        try (Connection conn = getConnection()) {
+            return readSchemaVersion(conn);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // План выполнения запроса (EXPLAIN QUERY PLAN), по строке на шаг
+    public List<String> explainQueryPlan(String sql) {
+        List<String> plan = new ArrayList<>();
+
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+
+        } catch (SQLException e) {
             e.printStackTrace();
         }
+
+        return plan;
+    }
+
+    private void insertSampleCruises() {
+        insertCruises(Arrays.asList(
+                sample("Средиземное море (Италия, Франция, Испания)", "15.06.2026", 10, 145000, 150),
+                sample("Балтийское море (Санкт-Петербург, Таллин, Стокгольм)", "01.07.2026", 7, 89000, 80),
+                sample("Норвежские фьорды", "10.08.2026", 8, 156000, 60),
+                sample("Карибский бассейн", "20.12.2026", 12, 234000, 200),
+                sample("Аляска (ледники)", "05.09.2026", 9, 189000, 45),
+                sample("Япония (Токио, Осака, Хоккайдо)", "10.10.2026", 11, 278000, 120)));
+    }
+
+    private static Cruise sample(String destination, String departure, int days, long rubles, int seats) {
+        return new Cruise(0, destination, Dates.parseDay(departure), days, Money.ofRubles(rubles), seats);
     }
 
     public List<Cruise> getAllCruises() {
@@ -1181,9 +2631,9 @@ class DBHelper {
                 Cruise cruise = new Cruise(
                         rs.getInt("id"),
                         rs.getString("destination"),
-                        new Date(rs.getLong("departure")),
+                        Instant.ofEpochMilli(rs.getLong("departure")),
                         rs.getInt("duration"),
-                        rs.getDouble("price"),
+                        rs.getLong("price_kop"),
                         rs.getInt("available_seats")
                 );
                 cruises.add(cruise);
@@ -1196,6 +2646,27 @@ class DBHelper {
         return cruises;
     }
 
+    // Весь каталог в колоночном виде за один проход по выборке
+    public CruiseTable loadCruiseTable() {
+        String sql = "SELECT id, destination, departure, duration, price_kop, available_seats FROM cruises ORDER BY departure";
+        CruiseTable table = new CruiseTable(1024);
+
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                table.add(rs.getInt(1), rs.getString(2), rs.getLong(3), rs.getInt(4),
+                        rs.getLong(5), rs.getInt(6));
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        return table;
+    }
+
     public Cruise findCruiseById(int id) {
         String sql = "SELECT * FROM cruises WHERE id = ?";
 
@@ -1209,9 +2680,9 @@ class DBHelper {
                 return new Cruise(
                         rs.getInt("id"),
                         rs.getString("destination"),
-                        new Date(rs.getLong("departure")),
+                        Instant.ofEpochMilli(rs.getLong("departure")),
                         rs.getInt("duration"),
-                        rs.getDouble("price"),
+                        rs.getLong("price_kop"),
                         rs.getInt("available_seats")
                 );
             }
@@ -1230,7 +2701,7 @@ class DBHelper {
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, username);
-            ps.setString(2, hash(password));
+            ps.setString(2, Passwords.hash(password, passwordIterations));
             ps.setString(3, fullname);
             ps.executeUpdate();
             return true;
@@ -1240,24 +2711,34 @@ class DBHelper {
         }
     }
 
+    // Хеш сравнивается в Java, а не в SQL: соль и стоимость хранятся в самой строке хеша
     public User authenticateUser(String username, String password) {
-        String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
+        String sql = "SELECT id, username, password, fullname, is_admin FROM users WHERE username = ?";
 
         try (Connection conn = getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, username);
-            ps.setString(2, hash(password));
             ResultSet rs = ps.executeQuery();
 
-            if (rs.next()) {
-                return new User(
-                        rs.getInt("id"),
-                        rs.getString("username"),
-                        rs.getString("fullname"),
-                        rs.getInt("is_admin") == 1
-                );
+            if (!rs.next()) {
+                Passwords.verify(password, dummyHash());
+                return null;
+            }
+            String stored = rs.getString("password");
+            if (!Passwords.verify(password, stored)) return null;
+
+            User user = new User(
+                    rs.getInt("id"),
+                    rs.getString("username"),
+                    rs.getString("fullname"),
+                    rs.getInt("is_admin") == 1
+            );
+            rs.close();
+            if (Passwords.needsRehash(stored, passwordIterations)) {
+                rehashPassword(conn, user.getId(), stored, password);
             }
+            return user;
 
         } catch (SQLException e) {
             e.printStackTrace();
@@ -1266,32 +2747,170 @@ class DBHelper {
         return null;
     }
 
-    public boolean insertBooking(Booking booking) {
-        String sql = "INSERT INTO bookings (user_id, cruise_id, customer_name, seats, contact, booking_date) " +
+    // Старый SHA-256 заменяется на PBKDF2 при первом удачном входе; условие по старому
+    // хешу не даёт затереть пароль, сменённый параллельно
+    private void rehashPassword(Connection conn, int userId, String stored, String password) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE users SET password = ? WHERE id = ? AND password = ?")) {
+            ps.setString(1, Passwords.hash(password, passwordIterations));
+            ps.setInt(2, userId);
+            ps.setString(3, stored);
+            ps.executeUpdate();
+        }
+    }
+
+    public int bookSeats(int userId, int cruiseId, int seats, String contact) {
+        return bookSeats(userId, cruiseId, seats, null, contact);
+    }
+
+    // Атомарное бронирование: условное списание мест и вставка брони в одной транзакции.
+    // Возвращает id брони, BOOKING_NO_SEATS (мест не хватает или круиза нет)
+    // или BOOKING_FAILED (ошибка базы).
+    public int bookSeats(int userId, int cruiseId, int seats, String customerName, String contact) {
+        return bookSeatsBatch(Collections.singletonList(
+                new BookingRequest(userId, cruiseId, seats, customerName, contact)))[0];
+    }
+
+    // Групповое бронирование: все запросы в одной транзакции (одна фиксация на пакет).
+    // Каждый запрос списывает места условно, поэтому отказ одного не влияет на остальные.
+    // Если транзакция целиком упала, запросы повторяются по одному, чтобы ошибка
+    // одного не отменяла чужие брони. Результаты — в порядке запросов, как у bookSeats.
+    public int[] bookSeatsBatch(List<BookingRequest> requests) {
+        int[] results = new int[requests.size()];
+        try (Connection conn = getConnection()) {
+            try {
+                bookInTransaction(conn, requests, results);
+                return results;
+            } catch (SQLException e) {
+                if (requests.size() == 1) throw e;
+                e.printStackTrace();
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                try {
+                    int[] single = new int[1];
+                    bookInTransaction(conn, Collections.singletonList(requests.get(i)), single);
+                    results[i] = single[0];
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    results[i] = BOOKING_FAILED;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            Arrays.fill(results, BOOKING_FAILED);
+        }
+        return results;
+    }
+
+    private void bookInTransaction(Connection conn, List<BookingRequest> requests, int[] results) throws SQLException {
+        String reserveSql = "UPDATE cruises SET available_seats = available_seats - ? " +
+                "WHERE id = ? AND available_seats >= ?";
+        String insertSql = "INSERT INTO bookings (user_id, cruise_id, customer_name, seats, contact, booking_date) " +
                 "VALUES (?, ?, ?, ?, ?, ?)";
 
+        Map<Integer, Integer> seatDeltas = new LinkedHashMap<>();
+        conn.setAutoCommit(false);
+        try (PreparedStatement reserve = conn.prepareStatement(reserveSql);
+             PreparedStatement insert = conn.prepareStatement(insertSql);
+             PreparedStatement lastId = conn.prepareStatement("SELECT last_insert_rowid()")) {
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < requests.size(); i++) {
+                BookingRequest r = requests.get(i);
+                if (r.getSeats() <= 0) {
+                    results[i] = BOOKING_NO_SEATS;
+                    continue;
+                }
+                reserve.setInt(1, r.getSeats());
+                reserve.setInt(2, r.getCruiseId());
+                reserve.setInt(3, r.getSeats());
+                if (reserve.executeUpdate() == 0) {
+                    results[i] = BOOKING_NO_SEATS;
+                    continue;
+                }
+
+                insert.setInt(1, r.getUserId());
+                insert.setInt(2, r.getCruiseId());
+                insert.setString(3, r.getCustomerName());
+                insert.setInt(4, r.getSeats());
+                insert.setString(5, r.getContact());
+                insert.setLong(6, now);
+                insert.executeUpdate();
+
+                // Без id бронь нельзя ни вернуть клиенту, ни записать в журнал — откатываем пакет
+                ResultSet rs = lastId.executeQuery();
+                if (!rs.next()) throw new SQLException("Не получен id новой брони");
+                results[i] = rs.getInt(1);
+                rs.close();
+                seatDeltas.merge(r.getCruiseId(), -r.getSeats(), Integer::sum);
+            }
+            conn.commit();
+
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        for (Map.Entry<Integer, Integer> e : seatDeltas.entrySet()) {
+            for (CatalogListener l : listeners) l.seatsChanged(e.getKey(), e.getValue());
+        }
+        BookingJournal j = journal;
+        if (j != null) {
+            // Транзакция уже зафиксирована: сбой журнала только логируется и не меняет результат брони
+            try {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < requests.size(); i++) {
+                    if (results[i] <= 0) continue;
+                    BookingRequest r = requests.get(i);
+                    j.append(BookingJournal.BOOKED, results[i], r.getUserId(), r.getCruiseId(), r.getSeats(),
+                            now, r.getCustomerName(), r.getContact());
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Остатки мест по всем круизам (null при ошибке базы)
+    public Map<Integer, Integer> getAvailableSeatsByCruise() {
+        Map<Integer, Integer> result = new HashMap<>();
+        String sql = "SELECT id, available_seats FROM cruises";
+
         try (Connection conn = getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, booking.getUserId());
-            ps.setInt(2, booking.getCruise().getId());
-            ps.setString(3, booking.getCustomerName());
-            ps.setInt(4, booking.getSeats());
-            ps.setString(5, booking.getContact());
-            ps.setLong(6, booking.getBookingDate().getTime());
-            ps.executeUpdate();
-
-            return true;
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.put(rs.getInt(1), rs.getInt(2));
+            }
+            return result;
 
         } catch (SQLException e) {
             e.printStackTrace();
-            return false;
+            return null;
+        }
+    }
+
+    private int lastInsertId(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT last_insert_rowid()")) {
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getInt(1) : -1;
         }
     }
 
     public List<Booking> getBookingsByUser(int userId) {
+        return getBookingsByUser(userId, new HashMap<>());
+    }
+
+    // Брони ссылаются на общие экземпляры круизов из карты cruises (id -> круиз):
+    // столбцы круиза читаются только при первой встрече, дальше берётся готовый объект.
+    // Карту можно передавать между запросами; круизы в ней — снимок на момент первой загрузки.
+    public List<Booking> getBookingsByUser(int userId, Map<Integer, Cruise> cruises) {
         List<Booking> bookings = new ArrayList<>();
-        String sql = "SELECT b.*, c.* FROM bookings b " +
+        String sql = "SELECT b.id, b.user_id, b.cruise_id, b.seats, b.contact, b.booking_date, b.customer_name, " +
+                "c.destination, c.departure, c.duration, c.price_kop, c.available_seats FROM bookings b " +
                 "JOIN cruises c ON b.cruise_id = c.id " +
                 "WHERE b.user_id = ? " +
                 "ORDER BY b.booking_date DESC";
@@ -1303,24 +2922,29 @@ class DBHelper {
             ResultSet rs = ps.executeQuery();
 
             while (rs.next()) {
-                Cruise cruise = new Cruise(
-                        rs.getInt("cruise_id"),
-                        rs.getString("destination"),
-                        new Date(rs.getLong("departure")),
-                        rs.getInt("duration"),
-                        rs.getDouble("price"),
-                        rs.getInt("available_seats")
-                );
+                int cruiseId = rs.getInt(3);
+                Cruise cruise = cruises.get(cruiseId);
+                if (cruise == null) {
+                    cruise = new Cruise(
+                            cruiseId,
+                            rs.getString(8),
+                            Instant.ofEpochMilli(rs.getLong(9)),
+                            rs.getInt(10),
+                            rs.getLong(11),
+                            rs.getInt(12)
+                    );
+                    cruises.put(cruiseId, cruise);
+                }
 
                 Booking booking = new Booking(
-                        rs.getInt("id"),
-                        rs.getInt("user_id"),
+                        rs.getInt(1),
+                        rs.getInt(2),
                         cruise,
-                        rs.getInt("seats"),
-                        rs.getString("contact"),
-                        new Date(rs.getLong("booking_date"))
+                        rs.getInt(4),
+                        rs.getString(5),
+                        Instant.ofEpochMilli(rs.getLong(6))
                 );
-                booking.setCustomerName(rs.getString("customer_name"));
+                booking.setCustomerName(rs.getString(7));
 
                 bookings.add(booking);
             }
@@ -1332,89 +2956,198 @@ class DBHelper {
         return bookings;
     }
 
+    // Страница броней пользователя от новых к старым по ключу (booking_date, id):
+    // следующая страница начинается сразу после последней строки предыдущей (after),
+    // поэтому глубина листания не влияет на стоимость запроса. after == null — первая страница.
+    public List<BookingRow> getBookingsPage(int userId, BookingRow after, int limit) {
+        List<BookingRow> rows = new ArrayList<>(limit);
+        String sql = "SELECT b.id, b.cruise_id, c.destination, c.departure, b.seats, b.contact, b.booking_date, " +
+                "b.seats * c.price_kop FROM bookings b " +
+                "JOIN cruises c ON b.cruise_id = c.id " +
+                "WHERE b.user_id = ? " +
+                (after != null ? "AND (b.booking_date, b.id) < (?, ?) " : "") +
+                "ORDER BY b.booking_date DESC, b.id DESC LIMIT ?";
+
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            int i = 1;
+            ps.setInt(i++, userId);
+            if (after != null) {
+                ps.setLong(i++, after.getBookingDate());
+                ps.setInt(i++, after.getId());
+            }
+            ps.setInt(i, limit);
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                rows.add(new BookingRow(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4),
+                        rs.getInt(5), rs.getString(6), rs.getLong(7), rs.getLong(8)));
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        return rows;
+    }
+
     public void deleteBookingById(int bookingId) {
-        // Сначала получаем информацию о бронировании
-        String getBookingSql = "SELECT cruise_id, seats FROM bookings WHERE id = ?";
+        cancelBookings(new int[]{bookingId});
+    }
+
+    // Отмена броней одной транзакцией: места возвращаются относительным обновлением.
+    // Повторы id отбрасываются, иначе места брони вернулись бы дважды.
+    // Возвращает количество отменённых броней.
+    public int cancelBookings(int[] bookingIds) {
+        String getBookingSql = "SELECT cruise_id, seats, user_id FROM bookings WHERE id = ?";
+        String returnSeatsSql = "UPDATE cruises SET available_seats = available_seats + ? WHERE id = ?";
         String deleteSql = "DELETE FROM bookings WHERE id = ?";
 
         try (Connection conn = getConnection()) {
-            // Получаем данные брони
-            try (PreparedStatement ps = conn.prepareStatement(getBookingSql)) {
-                ps.setInt(1, bookingId);
-                ResultSet rs = ps.executeQuery();
-
-                if (rs.next()) {
-                    int cruiseId = rs.getInt("cruise_id");
-                    int seats = rs.getInt("seats");
-
-                    // Возвращаем места обратно
-                    Cruise cruise = findCruiseById(cruiseId);
-                    if (cruise != null) {
-                        cruise.incrementAvailableSeats(seats);
-                        updateCruiseSeats(cruise);
+            conn.setAutoCommit(false);
+            try {
+                // Места суммируются по круизам, чтобы обновить каждый круиз один раз
+                Map<Integer, Integer> seatsByCruise = new HashMap<>();
+                List<int[]> cancelledRows = new ArrayList<>();
+                int cancelled = 0;
+
+                try (PreparedStatement find = conn.prepareStatement(getBookingSql);
+                     PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+                    Set<Integer> unique = new LinkedHashSet<>();
+                    for (int bookingId : bookingIds) unique.add(bookingId);
+                    for (int bookingId : unique) {
+                        find.setInt(1, bookingId);
+                        ResultSet rs = find.executeQuery();
+                        if (!rs.next()) continue;
+
+                        seatsByCruise.merge(rs.getInt("cruise_id"), rs.getInt("seats"), Integer::sum);
+                        cancelledRows.add(new int[]{bookingId, rs.getInt("user_id"), rs.getInt("cruise_id"), rs.getInt("seats")});
+                        delete.setInt(1, bookingId);
+                        delete.addBatch();
+                        cancelled++;
                     }
+                    delete.executeBatch();
                 }
-            }
 
-            // Удаляем бронь
-            try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
-                ps.setInt(1, bookingId);
-                ps.executeUpdate();
+                try (PreparedStatement ps = conn.prepareStatement(returnSeatsSql)) {
+                    for (Map.Entry<Integer, Integer> e : seatsByCruise.entrySet()) {
+                        ps.setInt(1, e.getValue());
+                        ps.setInt(2, e.getKey());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+
+                conn.commit();
+                for (Map.Entry<Integer, Integer> e : seatsByCruise.entrySet()) {
+                    for (CatalogListener l : listeners) l.seatsChanged(e.getKey(), e.getValue());
+                }
+                BookingJournal j = journal;
+                if (j != null) {
+                    // Как и при брони: отмена уже зафиксирована, сбой журнала её не отменяет
+                    try {
+                        long now = System.currentTimeMillis();
+                        for (int[] row : cancelledRows) {
+                            j.append(BookingJournal.CANCELLED, row[0], row[1], row[2], row[3], now, null, null);
+                        }
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return cancelled;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
 
         } catch (SQLException e) {
             e.printStackTrace();
+            return 0;
         }
     }
 
     public void insertCruise(Cruise cruise) {
-        String sql = "INSERT INTO cruises (destination, departure, duration, price, available_seats) " +
+        String sql = "INSERT INTO cruises (destination, departure, duration, price_kop, available_seats) " +
                 "VALUES (?, ?, ?, ?, ?)";
 
         try (Connection conn = getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, cruise.getDestination());
-            ps.setLong(2, cruise.getDeparture().getTime());
+            ps.setLong(2, cruise.getDeparture().toEpochMilli());
             ps.setInt(3, cruise.getDurationDays());
-            ps.setDouble(4, cruise.getPricePerPerson());
+            ps.setLong(4, cruise.getPriceKop());
             ps.setInt(5, cruise.getAvailableSeats());
             ps.executeUpdate();
+            cruise.setId(lastInsertId(conn));
+            fireCruiseSaved(cruise);
 
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public void updateCruise(Cruise cruise) {
-        String sql = "UPDATE cruises SET destination = ?, departure = ?, duration = ?, " +
-                "price = ?, available_seats = ? WHERE id = ?";
-
-        try (Connection conn = getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setString(1, cruise.getDestination());
-            ps.setLong(2, cruise.getDeparture().getTime());
-            ps.setInt(3, cruise.getDurationDays());
-            ps.setDouble(4, cruise.getPricePerPerson());
-            ps.setInt(5, cruise.getAvailableSeats());
-            ps.setInt(6, cruise.getId());
-            ps.executeUpdate();
+    // Пакетная вставка одной транзакцией; возвращает число добавленных круизов
+    // или -1, если транзакция откатилась (тогда не добавлено ни одного)
+    public int insertCruises(List<Cruise> cruises) {
+        String sql = "INSERT INTO cruises (destination, departure, duration, price_kop, available_seats) " +
+                "VALUES (?, ?, ?, ?, ?)";
 
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int pending = 0;
+                for (Cruise cruise : cruises) {
+                    ps.setString(1, cruise.getDestination());
+                    ps.setLong(2, cruise.getDeparture().toEpochMilli());
+                    ps.setInt(3, cruise.getDurationDays());
+                    ps.setLong(4, cruise.getPriceKop());
+                    ps.setInt(5, cruise.getAvailableSeats());
+                    ps.addBatch();
+                    if (++pending == INSERT_BATCH_SIZE) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+                // AUTOINCREMENT под блокировкой записи выдаёт пакету идущие подряд id
+                int firstId = lastInsertId(conn) - cruises.size() + 1;
+                conn.commit();
+                for (int i = 0; i < cruises.size(); i++) {
+                    cruises.get(i).setId(firstId + i);
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
             e.printStackTrace();
+            return -1;
         }
+
+        for (Cruise cruise : cruises) fireCruiseSaved(cruise);
+        return cruises.size();
     }
 
-    public void updateCruiseSeats(Cruise cruise) {
-        String sql = "UPDATE cruises SET available_seats = ? WHERE id = ?";
+    public void updateCruise(Cruise cruise) {
+        String sql = "UPDATE cruises SET destination = ?, departure = ?, duration = ?, " +
+                "price_kop = ?, available_seats = ? WHERE id = ?";
 
         try (Connection conn = getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, cruise.getAvailableSeats());
-            ps.setInt(2, cruise.getId());
+            ps.setString(1, cruise.getDestination());
+            ps.setLong(2, cruise.getDeparture().toEpochMilli());
+            ps.setInt(3, cruise.getDurationDays());
+            ps.setLong(4, cruise.getPriceKop());
+            ps.setInt(5, cruise.getAvailableSeats());
+            ps.setInt(6, cruise.getId());
             ps.executeUpdate();
+            fireCruiseSaved(cruise);
 
         } catch (SQLException e) {
             e.printStackTrace();
@@ -1436,59 +3169,3077 @@ class DBHelper {
                 ps.setInt(1, cruiseId);
                 ps.executeUpdate();
             }
+            for (CatalogListener l : listeners) l.cruiseDeleted(cruiseId);
 
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public void exportBookingsToCSV(File file) throws Exception {
-        String sql = "SELECT b.*, u.username, u.fullname, c.destination, c.departure, c.price " +
+    public static final int EXPORT_FETCH_SIZE = 2000;
+
+    public long exportBookingsToCSV(File file) throws Exception {
+        return exportBookingsToCSV(file, EXPORT_FETCH_SIZE, null);
+    }
+
+    // Потоковая выгрузка в UTF-8: строки читаются порциями по fetchSize и пишутся
+    // через буфер без printf и форматтеров дат. progress может быть null;
+    // если он вернёт false, выгрузка прерывается, а недописанный файл удаляется.
+    public long exportBookingsToCSV(File file, int fetchSize, ExportProgress progress) throws Exception {
+        String sql = "SELECT b.id, u.username, u.fullname, c.destination, c.departure, b.customer_name, " +
+                "b.seats, b.contact, b.booking_date, c.price_kop " +
                 "FROM bookings b " +
                 "JOIN users u ON b.user_id = u.id " +
                 "JOIN cruises c ON b.cruise_id = c.id " +
                 "ORDER BY b.booking_date DESC";
 
+        long total = progress != null ? countBookings() : -1;
+        long rows = 0;
+        boolean cancelled = false;
+
         try (Connection conn = getConnection();
              PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery();
-             java.io.PrintWriter pw = new java.io.PrintWriter(file)) {
+             java.io.Writer out = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+                     new java.io.FileOutputStream(file), java.nio.charset.StandardCharsets.UTF_8), 1 << 16)) {
 
-            pw.println("ID;Пользователь;ФИО;Круиз;Дата круиза;Имя клиента;Мест;Контакт;Дата брони;Сумма");
+            ps.setFetchSize(fetchSize);
+            ResultSet rs = ps.executeQuery();
 
-            SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
-            SimpleDateFormat sdfDateTime = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+            // BOM, чтобы Excel распознал UTF-8
+            out.write('\uFEFF');
+            out.write("ID;Пользователь;ФИО;Круиз;Дата круиза;Имя клиента;Мест;Контакт;Дата брони;Сумма\n");
+
+            CsvRowFormatter fmt = new CsvRowFormatter();
+            StringBuilder line = new StringBuilder(256);
 
             while (rs.next()) {
-                double total = rs.getInt("seats") * rs.getDouble("price");
+                int seats = rs.getInt(7);
+                line.setLength(0);
+                line.append(rs.getInt(1)).append(';')
+                        .append(rs.getString(2)).append(';')
+                        .append(rs.getString(3)).append(';')
+                        .append(rs.getString(4)).append(';');
+                fmt.appendDate(line, rs.getLong(5));
+                line.append(';')
+                        .append(rs.getString(6)).append(';')
+                        .append(seats).append(';')
+                        .append(rs.getString(8)).append(';');
+                fmt.appendDateTime(line, rs.getLong(9));
+                line.append(';');
+                fmt.appendAmount(line, Money.times(rs.getLong(10), seats));
+                line.append('\n');
+                out.append(line);
+
+                rows++;
+                if (progress != null && rows % 1000 == 0 && !progress.onProgress(rows, total)) {
+                    cancelled = true;
+                    break;
+                }
+            }
+        }
 
-                pw.printf("%d;%s;%s;%s;%s;%s;%d;%s;%s;%.2f%n",
-                        rs.getInt("id"),
-                        rs.getString("username"),
-                        rs.getString("fullname"),
-                        rs.getString("destination"),
-                        sdf.format(new Date(rs.getLong("departure"))),
-                        rs.getString("customer_name"),
-                        rs.getInt("seats"),
-                        rs.getString("contact"),
-                        sdfDateTime.format(new Date(rs.getLong("booking_date"))),
-                        total
-                );
+        if (cancelled) {
+            file.delete();
+            throw new java.util.concurrent.CancellationException("Экспорт отменён");
+        }
+        if (progress != null) progress.onProgress(rows, total);
+        return rows;
+    }
+
+    // ---------- аналитика: чтение готовых агрегатов (миграция 5), без прохода по броням ----------
+
+    public List<AnalyticsRow> getRevenueByCruise(int limit) {
+        String sql = "SELECT c.destination, c.departure, s.bookings, s.seats, c.available_seats, s.revenue_kop " +
+                "FROM stats_cruise s JOIN cruises c ON c.id = s.cruise_id " +
+                "ORDER BY s.revenue_kop DESC LIMIT ?";
+        List<AnalyticsRow> rows = new ArrayList<>();
+
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, limit);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                rows.add(new AnalyticsRow(rs.getString(1) + ", " + Dates.formatDay(rs.getLong(2)), 1,
+                        rs.getLong(3), rs.getLong(4), rs.getLong(5), rs.getLong(6)));
             }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+        return rows;
     }
 
-    private String hash(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes("UTF-8"));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                hexString.append(String.format("%02x", b));
+    public List<AnalyticsRow> getRevenueByDestination(int limit) {
+        return readStats("SELECT destination, cruises, bookings, seats, available, revenue_kop " +
+                "FROM stats_destination ORDER BY revenue_kop DESC LIMIT " + limit);
+    }
+
+    // По месяцу отправления (в UTC), по порядку; подпись — "MM.yyyy"
+    public List<AnalyticsRow> getRevenueByMonth() {
+        List<AnalyticsRow> rows = new ArrayList<>();
+        for (AnalyticsRow r : readStats("SELECT month, cruises, bookings, seats, available, revenue_kop " +
+                "FROM stats_month ORDER BY month")) {
+            String month = r.getLabel().substring(5) + "." + r.getLabel().substring(0, 4);
+            rows.add(new AnalyticsRow(month, r.getCruises(), r.getBookings(), r.getSeats(),
+                    r.getAvailable(), r.getRevenueKop()));
+        }
+        return rows;
+    }
+
+    private List<AnalyticsRow> readStats(String sql) {
+        List<AnalyticsRow> rows = new ArrayList<>();
+
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                rows.add(new AnalyticsRow(rs.getString(1), rs.getInt(2), rs.getLong(3),
+                        rs.getLong(4), rs.getLong(5), rs.getLong(6)));
             }
-            return hexString.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+
+    public long countBookings() {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM bookings")) {
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
+// ===================================================================
+// КЭШ КАТАЛОГА КРУИЗОВ
+// ===================================================================
+class CruiseCatalog implements CatalogListener {
+    private static final Comparator<Cruise> BY_DEPARTURE =
+            Comparator.comparing(Cruise::getDeparture).thenComparingInt(Cruise::getId);
+
+    private final DBHelper db;
+    private final Map<Integer, Cruise> byId = new HashMap<>();
+    private ArrayList<Cruise> sorted = new ArrayList<>();
+    private CruiseSearchIndex index = new CruiseSearchIndex(sorted);
+    private boolean sortedValid = true;
+    // Список уже отдан наружу через getAll() — перед правкой его нужно скопировать
+    private boolean sortedShared;
+    private long loadedAt;
+    private long version;
+    private long hits;
+    private long loads;
+
+    public CruiseCatalog(DBHelper db) {
+        this.db = db;
+        db.addCatalogListener(this);
+        reload();
+    }
+
+    // Полная перечитка каталога из базы
+    public synchronized void reload() {
+        byId.clear();
+        for (Cruise c : db.getAllCruises()) {
+            byId.put(c.getId(), c);
+        }
+        sortedValid = false;
+        loadedAt = System.currentTimeMillis();
+        version++;
+        loads++;
+    }
+
+    public synchronized List<Cruise> getAll() {
+        hits++;
+        snapshot();
+        sortedShared = true;
+        return Collections.unmodifiableList(sorted);
+    }
+
+    public synchronized Cruise findById(int id) {
+        hits++;
+        return byId.get(id);
+    }
+
+    // Границы цены — в копейках
+    public synchronized List<Cruise> filter(String searchText, long minPrice, long maxPrice) {
+        hits++;
+        snapshot();
+        return index.search(searchText, minPrice, maxPrice);
+    }
+
+    // Отсортированный по дате список и поисковый индекс пересобираются
+    // только после изменения состава или полей каталога
+    private void snapshot() {
+        if (!sortedValid) {
+            ArrayList<Cruise> list = new ArrayList<>(byId.values());
+            list.sort(BY_DEPARTURE);
+            sorted = list;
+            sortedShared = false;
+            index = new CruiseSearchIndex(list);
+            sortedValid = true;
+        }
+    }
+
+    public synchronized void cruiseSaved(Cruise cruise) {
+        byId.put(cruise.getId(), new Cruise(cruise.getId(), cruise.getDestination(), cruise.getDeparture(),
+                cruise.getDurationDays(), cruise.getPriceKop(), cruise.getAvailableSeats()));
+        sortedValid = false;
+        version++;
+    }
+
+    public synchronized void cruiseDeleted(int cruiseId) {
+        if (byId.remove(cruiseId) != null) {
+            sortedValid = false;
+            version++;
+        }
+    }
+
+    // Экземпляры из снимка уже отданы EDT, поэтому не правим их на месте,
+    // а подменяем круиз новой копией — таблица увидит её при следующем getAll().
+    // Места не влияют ни на порядок, ни на ключи поиска: копия встаёт в ту же позицию,
+    // без пересортировки и пересборки индекса
+    public synchronized void seatsChanged(int cruiseId, int delta) {
+        Cruise c = byId.get(cruiseId);
+        if (c == null) return;
+        Cruise updated = new Cruise(c.getId(), c.getDestination(), c.getDeparture(),
+                c.getDurationDays(), c.getPriceKop(), c.getAvailableSeats() + delta);
+        byId.put(cruiseId, updated);
+        version++;
+
+        if (sortedValid) {
+            int pos = Collections.binarySearch(sorted, c, BY_DEPARTURE);
+            if (pos < 0) {
+                sortedValid = false;
+                return;
+            }
+            if (sortedShared) {
+                sorted = new ArrayList<>(sorted);
+                sortedShared = false;
+            }
+            sorted.set(pos, updated);
+            index.replace(pos, updated);
+        }
+    }
+
+    public synchronized int size() { return byId.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getLoads() { return loads; }
+    public synchronized long getVersion() { return version; }
+
+    // Сколько миллисекунд прошло с последней полной перечитки из базы
+    public synchronized long getStalenessMillis() {
+        return System.currentTimeMillis() - loadedAt;
+    }
+}
+
+// ===================================================================
+// СЕРВИС БРОНИРОВАНИЯ (БЕЗ ПРИВЯЗКИ К ИНТЕРФЕЙСУ)
+// ===================================================================
+// Запрос на бронирование в том виде, в каком он уходит в базу
+class BookingRequest {
+    private final int userId;
+    private final int cruiseId;
+    private final int seats;
+    private final String customerName;
+    private final String contact;
+
+    BookingRequest(int userId, int cruiseId, int seats, String customerName, String contact) {
+        this.userId = userId;
+        this.cruiseId = cruiseId;
+        this.seats = seats;
+        this.customerName = customerName;
+        this.contact = contact;
+    }
+
+    public int getUserId() { return userId; }
+    public int getCruiseId() { return cruiseId; }
+    public int getSeats() { return seats; }
+    public String getCustomerName() { return customerName; }
+    public String getContact() { return contact; }
+}
+
+class BookingResult {
+    enum Status { OK, INVALID, NOT_FOUND, NO_SEATS, FAILED }
+
+    private final Status status;
+    private final int bookingId;
+
+    BookingResult(Status status, int bookingId) {
+        this.status = status;
+        this.bookingId = bookingId;
+    }
+
+    public Status getStatus() { return status; }
+    public int getBookingId() { return bookingId; }
+    public boolean isOk() { return status == Status.OK; }
+}
+
+class BookingService {
+    // Уточнение причины отказа запросом к базе — не на потоке пакетировщика
+    private static final ExecutorService REFUSALS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final DBHelper db;
+    private final BookingBatcher batcher;
+    private final SeatInventory inventory;
+
+    public BookingService(DBHelper db) {
+        this(db, null, null);
+    }
+
+    // С пакетировщиком бронирования копятся и фиксируются группами;
+    // с учётом мест в памяти отказ при нехватке мест выдаётся без обращения к базе
+    public BookingService(DBHelper db, BookingBatcher batcher, SeatInventory inventory) {
+        this.db = db;
+        this.batcher = batcher;
+        this.inventory = inventory;
+    }
+
+    public BookingResult book(int userId, int cruiseId, int seats, String customerName, String contact) {
+        return bookAsync(userId, cruiseId, seats, customerName, contact).join();
+    }
+
+    // Места резервируются в памяти сразу, запись в базу идёт через пакетировщик (если он есть).
+    // Если база бронь не приняла, резерв возвращается.
+    public CompletableFuture<BookingResult> bookAsync(int userId, int cruiseId, int seats,
+                                                      String customerName, String contact) {
+        if (seats <= 0 || isBlank(customerName) || isBlank(contact)) {
+            return CompletableFuture.completedFuture(new BookingResult(BookingResult.Status.INVALID, -1));
+        }
+        if (inventory != null) {
+            int reserved = inventory.tryReserve(cruiseId, seats);
+            if (reserved == SeatInventory.UNKNOWN_CRUISE) {
+                return CompletableFuture.completedFuture(new BookingResult(BookingResult.Status.NOT_FOUND, -1));
+            }
+            if (reserved == SeatInventory.NOT_ENOUGH) {
+                return CompletableFuture.completedFuture(new BookingResult(BookingResult.Status.NO_SEATS, -1));
+            }
+        }
+
+        BookingRequest request = new BookingRequest(userId, cruiseId, seats, customerName.trim(), contact.trim());
+        CompletableFuture<Integer> stored = batcher != null ?
+                batcher.submit(request) :
+                CompletableFuture.completedFuture(db.bookSeats(userId, cruiseId, seats,
+                        request.getCustomerName(), request.getContact()));
+
+        java.util.function.BiFunction<Integer, Throwable, BookingResult> finish = (bookingId, error) -> {
+            int id = error == null ? bookingId : DBHelper.BOOKING_FAILED;
+            if (id <= 0 && inventory != null) {
+                inventory.release(cruiseId, seats);
+            }
+            return toResult(cruiseId, id);
+        };
+        // С пакетировщиком колбэк не должен задерживать групповую фиксацию: с учётом мест
+        // причина отказа видна без базы, иначе её уточняет запрос в отдельном потоке
+        return batcher == null || inventory != null ? stored.handle(finish) : stored.handleAsync(finish, REFUSALS);
+    }
+
+    private BookingResult toResult(int cruiseId, int bookingId) {
+        if (bookingId > 0) {
+            return new BookingResult(BookingResult.Status.OK, bookingId);
+        }
+        if (bookingId == DBHelper.BOOKING_FAILED) {
+            return new BookingResult(BookingResult.Status.FAILED, -1);
         }
+        // Отказ без ошибки: либо круиза нет (удалён после резерва), либо не хватило мест
+        boolean exists = inventory != null ?
+                inventory.getAvailable(cruiseId) != SeatInventory.UNKNOWN_CRUISE :
+                db.findCruiseById(cruiseId) != null;
+        return new BookingResult(exists ? BookingResult.Status.NO_SEATS : BookingResult.Status.NOT_FOUND, -1);
     }
-}
\ No newline at end of file
+
+    public boolean cancel(int bookingId) {
+        return db.cancelBookings(new int[]{bookingId}) == 1;
+    }
+
+    public int cancelAll(int[] bookingIds) {
+        return db.cancelBookings(bookingIds);
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+}
+
+// Исполнитель бронирований и отмен. В режиме виртуальных потоков каждый запрос
+// получает свой виртуальный поток, поэтому тысячи запросов могут ждать одновременно,
+// а к SQLite (один писатель) допускается не больше maxWriters из них.
+// Режим платформенных потоков — фиксированный пул, для сравнения.
+class BookingExecutor implements AutoCloseable {
+    public static final int DEFAULT_WRITERS = 2;
+
+    private final BookingService service;
+    private final ExecutorService executor;
+    private final Semaphore writers;
+    private final boolean virtual;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public BookingExecutor(BookingService service, int maxWriters) {
+        this(service, maxWriters, Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    public static BookingExecutor withPlatformThreads(BookingService service, int maxWriters, int threads) {
+        return new BookingExecutor(service, maxWriters, Executors.newFixedThreadPool(threads), false);
+    }
+
+    private BookingExecutor(BookingService service, int maxWriters, ExecutorService executor, boolean virtual) {
+        this.service = service;
+        this.writers = new Semaphore(maxWriters, true);
+        this.executor = executor;
+        this.virtual = virtual;
+    }
+
+    public CompletableFuture<BookingResult> book(int userId, int cruiseId, int seats,
+                                                 String customerName, String contact) {
+        return submit(() -> service.book(userId, cruiseId, seats, customerName, contact));
+    }
+
+    public CompletableFuture<Boolean> cancel(int bookingId) {
+        return submit(() -> service.cancel(bookingId));
+    }
+
+    private <T> CompletableFuture<T> submit(java.util.function.Supplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                writers.acquireUninterruptibly();
+                try {
+                    return task.get();
+                } finally {
+                    writers.release();
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }, executor);
+    }
+
+    public boolean isVirtual() { return virtual; }
+
+    // Наибольшее число одновременно выполнявшихся (в том числе ждущих писателя) запросов
+    public int getMaxInFlight() { return maxInFlight.get(); }
+
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Групповая фиксация бронирований. Запросы копятся в очереди; единственный поток-писатель
+// забирает их пакетом (пока не истечёт окно windowMillis после первого запроса
+// или не наберётся maxBatch) и проводит весь пакет одной транзакцией через bookSeatsBatch.
+// Каждый вызывающий получает свой результат — id брони или код отказа DBHelper.
+class BookingBatcher implements AutoCloseable {
+    public static final long DEFAULT_WINDOW_MS = 2;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static class Pending {
+        final BookingRequest request;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Pending(BookingRequest request) {
+            this.request = request;
+        }
+    }
+
+    private final DBHelper db;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue = new java.util.concurrent.LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public BookingBatcher(DBHelper db, long windowMillis, int maxBatch) {
+        this.db = db;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::writeLoop, "booking-batcher");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public CompletableFuture<Integer> submit(BookingRequest request) {
+        Pending p = new Pending(request);
+        if (!running) {
+            p.result.complete(DBHelper.BOOKING_FAILED);
+            return p.result;
+        }
+        queue.add(p);
+        // close() мог успеть между проверкой и add: если писатель запрос не забрал, отказываем сами
+        if (!running && queue.remove(p)) {
+            p.result.complete(DBHelper.BOOKING_FAILED);
+        }
+        return p.result;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Добираем пакет до конца окна; после окна — только то, что уже в очереди
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        queue.drainTo(batch, maxBatch - batch.size());
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<BookingRequest> list = new ArrayList<>(batch.size());
+        for (Pending p : batch) list.add(p.request);
+        try {
+            int[] results = db.bookSeatsBatch(list);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results[i]);
+            }
+        } catch (RuntimeException e) {
+            for (Pending p : batch) p.result.completeExceptionally(e);
+        }
+        batches.incrementAndGet();
+        requests.addAndGet(batch.size());
+    }
+
+    public long getBatchCount() { return batches.get(); }
+
+    public double getAverageBatchSize() {
+        long b = batches.get();
+        return b == 0 ? 0 : (double) requests.get() / b;
+    }
+
+    // Новые запросы больше не принимаются, уже поставленные в очередь дописываются
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Всё, что писатель не успел забрать, завершаем отказом, чтобы никто не ждал вечно
+        List<Pending> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Pending p : left) p.result.complete(DBHelper.BOOKING_FAILED);
+    }
+}
+
+// Свободные места в памяти: по атомарному счётчику на круиз, резерв через CAS без блокировок.
+// Загружается из таблицы cruises при создании (и по reload). Это быстрый допуск:
+// окончательно места списывает условный UPDATE в базе, и если он отказал, резерв возвращают.
+// Отмены (положительные изменения мест) приходят от DBHelper через CatalogListener;
+// списания туда не применяются — их уже учёл tryReserve.
+class SeatInventory implements CatalogListener {
+    public static final int UNKNOWN_CRUISE = -1;
+    public static final int NOT_ENOUGH = -2;
+
+    private final DBHelper db;
+    private final Map<Integer, AtomicInteger> seats = new java.util.concurrent.ConcurrentHashMap<>();
+
+    public SeatInventory(DBHelper db) {
+        this.db = db;
+        reload();
+        db.addCatalogListener(this);
+    }
+
+    public void reload() {
+        Map<Integer, Integer> loaded = db.getAvailableSeatsByCruise();
+        if (loaded == null) return;
+        seats.keySet().retainAll(loaded.keySet());
+        for (Map.Entry<Integer, Integer> e : loaded.entrySet()) {
+            seats.computeIfAbsent(e.getKey(), k -> new AtomicInteger()).set(e.getValue());
+        }
+    }
+
+    // Возвращает остаток после резерва, UNKNOWN_CRUISE или NOT_ENOUGH
+    public int tryReserve(int cruiseId, int count) {
+        AtomicInteger counter = seats.get(cruiseId);
+        if (counter == null) return UNKNOWN_CRUISE;
+        while (true) {
+            int available = counter.get();
+            if (available < count) return NOT_ENOUGH;
+            if (counter.compareAndSet(available, available - count)) {
+                return available - count;
+            }
+        }
+    }
+
+    public void release(int cruiseId, int count) {
+        AtomicInteger counter = seats.get(cruiseId);
+        if (counter != null) counter.addAndGet(count);
+    }
+
+    public int getAvailable(int cruiseId) {
+        AtomicInteger counter = seats.get(cruiseId);
+        return counter == null ? UNKNOWN_CRUISE : counter.get();
+    }
+
+    // Новый круиз или правка администратором: берём значение из сохранённой записи
+    public void cruiseSaved(Cruise cruise) {
+        seats.computeIfAbsent(cruise.getId(), k -> new AtomicInteger()).set(cruise.getAvailableSeats());
+    }
+
+    public void cruiseDeleted(int cruiseId) {
+        seats.remove(cruiseId);
+    }
+
+    public void seatsChanged(int cruiseId, int delta) {
+        if (delta > 0) release(cruiseId, delta);
+    }
+}
+
+// ===================================================================
+// ЖУРНАЛ БРОНИРОВАНИЙ
+// ===================================================================
+// Файл только на дозапись: заголовок и записи фиксированной длины, отображённые в память.
+// Заголовок (64 байта): "BJRN", версия, число записей, флаги.
+// Запись (128 байт):
+//   0 тип (BOOKED, CANCELLED, IMPORTED)   1 длина имени   2 длина контакта
+//   4 id брони   8 id пользователя   12 id круиза   16 мест   24 время (мс)
+//   32 имя клиента, UTF-8, до 56 байт   88 контакт, UTF-8, до 40 байт
+// Длинные строки обрезаются по границе символа — журнал служит аудитом, а не заменой базы.
+class BookingJournal implements AutoCloseable {
+    public static final byte BOOKED = 1;
+    public static final byte CANCELLED = 2;
+    public static final byte IMPORTED = 3;
+
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 128;
+    private static final int MAGIC = 0x424A524E;  // "BJRN"
+    private static final int VERSION = 1;
+    private static final int FLAG_LEGACY_IMPORTED = 1;
+    private static final int NAME_OFFSET = 32, NAME_BYTES = 56;
+    private static final int CONTACT_OFFSET = 88, CONTACT_BYTES = 40;
+    private static final int INITIAL_RECORDS = 1 << 13;
+    // Весь файл отображается одним буфером, а смещения в нём — int: не больше 2 ГБ
+    static final long MAX_RECORDS = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    // Запись журнала в разобранном виде
+    static class Entry {
+        final byte type;
+        final int bookingId, userId, cruiseId, seats;
+        final long time;
+        final String customerName, contact;
+
+        Entry(byte type, int bookingId, int userId, int cruiseId, int seats, long time,
+              String customerName, String contact) {
+            this.type = type;
+            this.bookingId = bookingId;
+            this.userId = userId;
+            this.cruiseId = cruiseId;
+            this.seats = seats;
+            this.time = time;
+            this.customerName = customerName;
+            this.contact = contact;
+        }
+    }
+
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private long capacity;
+    private long count;
+
+    public BookingJournal(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = channel.size() < HEADER_SIZE;
+        long existing = fresh ? 0 : (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        if (existing > MAX_RECORDS) {
+            channel.close();
+            throw new IOException("Журнал больше " + MAX_RECORDS + " записей: " + file);
+        }
+        remap(Math.max(INITIAL_RECORDS, existing));
+
+        if (fresh) {
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putLong(8, 0);
+            map.putInt(16, 0);
+        } else if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Не журнал бронирований или неизвестная версия: " + file);
+        }
+        count = map.getLong(8);
+    }
+
+    // Файл растёт удвоением до MAX_RECORDS; отображение пересоздаётся целиком
+    private void remap(long records) throws IOException {
+        capacity = records;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + records * RECORD_SIZE);
+    }
+
+    public synchronized long append(byte type, int bookingId, int userId, int cruiseId, int seats,
+                                    long time, String customerName, String contact) {
+        ensureCapacity(count + 1);
+        writeRecord(count, type, bookingId, userId, cruiseId, seats, time, customerName, contact);
+        // Счётчик в заголовке меняется последним: запись видна только целиком
+        map.putLong(8, ++count);
+        return count - 1;
+    }
+
+    private void ensureCapacity(long records) {
+        if (records > MAX_RECORDS) {
+            throw new IllegalStateException("Журнал заполнен: " + MAX_RECORDS + " записей");
+        }
+        try {
+            if (records > capacity) {
+                long grown = capacity;
+                while (grown < records) grown *= 2;
+                remap(Math.min(grown, MAX_RECORDS));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось расширить журнал", e);
+        }
+    }
+
+    // Запись за счётчиком заголовка не видна читателям, пока счётчик не сдвинут
+    private void writeRecord(long index, byte type, int bookingId, int userId, int cruiseId, int seats,
+                             long time, String customerName, String contact) {
+        int pos = (int) (HEADER_SIZE + index * RECORD_SIZE);
+        map.put(pos, type);
+        map.put(pos + 1, (byte) putString(pos + NAME_OFFSET, NAME_BYTES, customerName));
+        map.put(pos + 2, (byte) putString(pos + CONTACT_OFFSET, CONTACT_BYTES, contact));
+        map.putInt(pos + 4, bookingId);
+        map.putInt(pos + 8, userId);
+        map.putInt(pos + 12, cruiseId);
+        map.putInt(pos + 16, seats);
+        map.putLong(pos + 24, time);
+    }
+
+    private int putString(int pos, int limit, String value) {
+        if (value == null) return 0;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(bytes.length, limit);
+        // Не режем многобайтовый символ посередине
+        while (len < bytes.length && len > 0 && (bytes[len] & 0xC0) == 0x80) len--;
+        map.put(pos, bytes, 0, len);
+        return len;
+    }
+
+    public synchronized Entry get(long index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Запись " + index + " из " + count);
+        int pos = (int) (HEADER_SIZE + index * RECORD_SIZE);
+        return new Entry(map.get(pos), map.getInt(pos + 4), map.getInt(pos + 8), map.getInt(pos + 12),
+                map.getInt(pos + 16), map.getLong(pos + 24),
+                getString(pos + NAME_OFFSET, map.get(pos + 1) & 0xFF),
+                getString(pos + CONTACT_OFFSET, map.get(pos + 2) & 0xFF));
+    }
+
+    private String getString(int pos, int len) {
+        byte[] bytes = new byte[len];
+        map.get(pos, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized long size() { return count; }
+
+    // Сброс отображённых страниц на диск
+    public synchronized void sync() {
+        map.force();
+    }
+
+    // Разовый перенос старого bookings.dat (сериализованный ArrayList<Booking>).
+    // Повторный вызов ничего не делает: после импорта в заголовке ставится флаг.
+    // Записи пишутся за счётчиком, а счётчик и флаг публикуются вместе в конце:
+    // сбой посередине не оставляет ни записей, ни флага, и следующий запуск начнёт заново.
+    public synchronized int importLegacy(File datFile) throws IOException {
+        if ((map.getInt(16) & FLAG_LEGACY_IMPORTED) != 0 || !datFile.exists()) return 0;
+
+        List<?> legacy;
+        try (LegacyBookingInput in = new LegacyBookingInput(
+                new java.io.BufferedInputStream(new java.io.FileInputStream(datFile)))) {
+            legacy = (List<?>) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Не удалось прочитать " + datFile, e);
+        }
+
+        int imported = legacy.size();
+        ensureCapacity(count + imported);
+        for (int i = 0; i < imported; i++) {
+            LegacyBooking b = (LegacyBooking) legacy.get(i);
+            writeRecord(count + i, IMPORTED, 0, 0, b.cruise != null ? b.cruise.id : 0, b.seats,
+                    b.bookingDate != null ? b.bookingDate.getTime() : 0, b.customerName, b.contact);
+        }
+        count += imported;
+        map.putLong(8, count);
+        map.putInt(16, map.getInt(16) | FLAG_LEGACY_IMPORTED);
+        map.force();
+        return imported;
+    }
+
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+}
+
+// Классы старого формата bookings.dat. Имена полей и serialVersionUID совпадают
+// с записанными в файле; от текущих Booking и Cruise они не зависят.
+class LegacyBooking implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    int seats;
+    Date bookingDate;
+    String contact;
+    LegacyCruise cruise;
+    String customerName;
+}
+
+class LegacyCruise implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    int durationDays;
+    int id;
+    double pricePerPerson;
+    Date departure;
+    String destination;
+}
+
+// Подменяет описания классов Booking и Cruise из потока на Legacy*-классы.
+// Файл может подменить пользователь, поэтому читаются только классы старого формата
+// (java.lang.Object — тип внутреннего массива ArrayList)
+class LegacyBookingInput extends java.io.ObjectInputStream {
+    private static final java.io.ObjectInputFilter ALLOWED = java.io.ObjectInputFilter.Config.createFilter(
+            "maxdepth=8;LegacyBooking;LegacyCruise;java.util.ArrayList;java.lang.Object;java.util.Date;java.lang.String;!*");
+
+    LegacyBookingInput(java.io.InputStream in) throws IOException {
+        super(in);
+        setObjectInputFilter(ALLOWED);
+    }
+
+    protected java.io.ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        java.io.ObjectStreamClass desc = super.readClassDescriptor();
+        switch (desc.getName()) {
+            case "Booking": return java.io.ObjectStreamClass.lookup(LegacyBooking.class);
+            case "Cruise": return java.io.ObjectStreamClass.lookup(LegacyCruise.class);
+            default: return desc;
+        }
+    }
+}
+
+// ===================================================================
+// ПОИСКОВЫЙ ИНДЕКС КАТАЛОГА
+// ===================================================================
+// Строится один раз по отсортированному по дате списку круизов:
+// направления приводятся к нижнему регистру и словарно кодируются,
+// по словарю строится индекс триграмм, цены хранятся отсортированными в копейках.
+class CruiseSearchIndex {
+    private static final int ROW_BITS = 24;
+
+    private final Cruise[] rows;
+    private final long[] departures;
+    private final long[] pricesKop;
+    private final int[] destOf;
+    private final String[] dictionary;
+    private final int[][] rowsByDest;
+    private final Map<Long, int[]> trigrams = new HashMap<>();
+    private final long[] priceOrder;
+
+    public CruiseSearchIndex(List<Cruise> sortedByDeparture) {
+        int n = sortedByDeparture.size();
+        if (n >= (1 << ROW_BITS)) throw new IllegalArgumentException("Слишком большой каталог: " + n);
+
+        rows = sortedByDeparture.toArray(new Cruise[0]);
+        departures = new long[n];
+        pricesKop = new long[n];
+        destOf = new int[n];
+        priceOrder = new long[n];
+
+        Map<String, Integer> dictIds = new HashMap<>();
+        List<String> dict = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Cruise c = rows[i];
+            departures[i] = c.getDeparture().toEpochMilli();
+            pricesKop[i] = c.getPriceKop();
+            priceOrder[i] = (pricesKop[i] << ROW_BITS) | i;
+
+            String folded = fold(c.getDestination());
+            Integer id = dictIds.get(folded);
+            if (id == null) {
+                id = dict.size();
+                dictIds.put(folded, id);
+                dict.add(folded);
+            }
+            destOf[i] = id;
+        }
+        Arrays.sort(priceOrder);
+        dictionary = dict.toArray(new String[0]);
+
+        // Строки каталога по каждому направлению (в порядке отправления)
+        int[] counts = new int[dictionary.length];
+        for (int d : destOf) counts[d]++;
+        rowsByDest = new int[dictionary.length][];
+        for (int d = 0; d < counts.length; d++) rowsByDest[d] = new int[counts[d]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < n; i++) rowsByDest[destOf[i]][counts[destOf[i]]++] = i;
+
+        // Триграммы словаря: ключ -> возрастающий список id направлений
+        Map<Long, List<Integer>> postings = new HashMap<>();
+        for (int d = 0; d < dictionary.length; d++) {
+            String s = dictionary[d];
+            for (int i = 0; i + 3 <= s.length(); i++) {
+                List<Integer> list = postings.computeIfAbsent(trigram(s, i), k -> new ArrayList<>());
+                if (list.isEmpty() || list.get(list.size() - 1) != d) list.add(d);
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> e : postings.entrySet()) {
+            List<Integer> list = e.getValue();
+            int[] ids = new int[list.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = list.get(i);
+            trigrams.put(e.getKey(), ids);
+        }
+    }
+
+    // Подмена строки копией с теми же датой, ценой и направлением (изменились только места)
+    void replace(int row, Cruise cruise) {
+        rows[row] = cruise;
+    }
+
+    public List<Cruise> search(String text, long minKop, long maxKop) {
+        return search(text, minKop, maxKop, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // Границы цены и даты включительные, как в фильтре главного окна
+    public List<Cruise> search(String text, long minKop, long maxKop, long fromDeparture, long toDeparture) {
+        String query = fold(text.trim());
+
+        // Даты: строки уже отсортированы по отправлению
+        int rowFrom = lowerBound(departures, fromDeparture);
+        int rowTo = toDeparture == Long.MAX_VALUE ? rows.length : lowerBound(departures, toDeparture + 1);
+
+        // Цены: диапазон в отсортированном массиве
+        int priceFrom = lowerBoundPrice(minKop);
+        int priceTo = maxKop == Long.MAX_VALUE ? rows.length : lowerBoundPrice(maxKop + 1);
+
+        boolean[] destMatch = null;
+        int textCount = Integer.MAX_VALUE;
+        if (!query.isEmpty()) {
+            destMatch = matchDestinations(query);
+            textCount = 0;
+            for (int d = 0; d < destMatch.length; d++) {
+                if (destMatch[d]) textCount += rowsByDest[d].length;
+            }
+        }
+
+        int dateCount = Math.max(0, rowTo - rowFrom);
+        int priceCount = Math.max(0, priceTo - priceFrom);
+        int[] found = new int[Math.min(dateCount, Math.min(priceCount, textCount))];
+        int size = 0;
+
+        // Перебираем самое узкое из условий, остальные проверяем по массивам
+        if (textCount <= dateCount && textCount <= priceCount) {
+            for (int d = 0; d < destMatch.length; d++) {
+                if (!destMatch[d]) continue;
+                for (int row : rowsByDest[d]) {
+                    if (row >= rowFrom && row < rowTo && pricesKop[row] >= minKop && pricesKop[row] <= maxKop) {
+                        found[size++] = row;
+                    }
+                }
+            }
+            Arrays.sort(found, 0, size);
+        } else if (priceCount <= dateCount) {
+            for (int i = priceFrom; i < priceTo; i++) {
+                int row = (int) (priceOrder[i] & ((1 << ROW_BITS) - 1));
+                if (row >= rowFrom && row < rowTo && (destMatch == null || destMatch[destOf[row]])) {
+                    found[size++] = row;
+                }
+            }
+            Arrays.sort(found, 0, size);
+        } else {
+            for (int row = rowFrom; row < rowTo; row++) {
+                if (pricesKop[row] >= minKop && pricesKop[row] <= maxKop &&
+                        (destMatch == null || destMatch[destOf[row]])) {
+                    found[size++] = row;
+                }
+            }
+        }
+
+        List<Cruise> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(rows[found[i]]);
+        }
+        return result;
+    }
+
+    private boolean[] matchDestinations(String query) {
+        boolean[] match = new boolean[dictionary.length];
+
+        // Короткий запрос — прямой просмотр словаря
+        if (query.length() < 3) {
+            for (int d = 0; d < dictionary.length; d++) {
+                match[d] = dictionary[d].contains(query);
+            }
+            return match;
+        }
+
+        // Пересечение списков триграмм, начиная с самого короткого, затем проверка подстроки
+        List<int[]> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            int[] ids = trigrams.get(trigram(query, i));
+            if (ids == null) return match;
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(a -> a.length));
+
+        for (int d : lists.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < lists.size() && inAll; i++) {
+                inAll = Arrays.binarySearch(lists.get(i), d) >= 0;
+            }
+            if (inAll && dictionary[d].contains(query)) {
+                match[d] = true;
+            }
+        }
+        return match;
+    }
+
+    private int lowerBoundPrice(long kop) {
+        if (kop > (Long.MAX_VALUE >> ROW_BITS)) return rows.length;
+        if (kop < 0) return 0;
+        return lowerBound(priceOrder, kop << ROW_BITS);
+    }
+
+    private static int lowerBound(long[] sorted, long key) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    static String fold(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    public int size() { return rows.length; }
+    public int dictionarySize() { return dictionary.length; }
+}
+
+// ===================================================================
+// КОЛОНОЧНОЕ ПРЕДСТАВЛЕНИЕ КАТАЛОГА
+// ===================================================================
+// Каталог для аналитики: по примитивному массиву на поле, направления словарно кодируются,
+// цены хранятся в копейках, даты — в миллисекундах эпохи. Фильтр возвращает вектор
+// номеров строк; агрегаты проходят по нему простыми циклами без объектов и упаковки.
+class CruiseTable {
+    private int size;
+    private int[] ids;
+    private long[] departures;
+    private int[] durations;
+    private long[] pricesKop;
+    private int[] seats;
+    private int[] destinations;
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryIds = new HashMap<>();
+
+    public CruiseTable(int capacity) {
+        capacity = Math.max(16, capacity);
+        ids = new int[capacity];
+        departures = new long[capacity];
+        durations = new int[capacity];
+        pricesKop = new long[capacity];
+        seats = new int[capacity];
+        destinations = new int[capacity];
+    }
+
+    public static CruiseTable of(List<Cruise> cruises) {
+        CruiseTable table = new CruiseTable(cruises.size());
+        for (Cruise c : cruises) {
+            table.add(c.getId(), c.getDestination(), c.getDeparture().toEpochMilli(), c.getDurationDays(),
+                    c.getPriceKop(), c.getAvailableSeats());
+        }
+        return table;
+    }
+
+    public void add(int id, String destination, long departure, int duration, long priceKop, int availableSeats) {
+        if (size == ids.length) grow();
+        Integer code = dictionaryIds.get(destination);
+        if (code == null) {
+            code = dictionary.size();
+            dictionaryIds.put(destination, code);
+            dictionary.add(destination);
+        }
+        ids[size] = id;
+        departures[size] = departure;
+        durations[size] = duration;
+        pricesKop[size] = priceKop;
+        seats[size] = availableSeats;
+        destinations[size] = code;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        departures = Arrays.copyOf(departures, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        pricesKop = Arrays.copyOf(pricesKop, capacity);
+        seats = Arrays.copyOf(seats, capacity);
+        destinations = Arrays.copyOf(destinations, capacity);
+    }
+
+    // Номера строк, подходящих под все условия (границы включительные).
+    // Условие вычисляется без ветвлений: номер пишется всегда, счётчик растёт только при совпадении.
+    public int[] select(long minPriceKop, long maxPriceKop, long fromDeparture, long toDeparture, int minSeats) {
+        int[] out = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            boolean match = pricesKop[i] >= minPriceKop & pricesKop[i] <= maxPriceKop
+                    & departures[i] >= fromDeparture & departures[i] <= toDeparture
+                    & seats[i] >= minSeats;
+            out[n] = i;
+            n += match ? 1 : 0;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    public long sumSeats(int[] rows) {
+        long sum = 0;
+        for (int row : rows) sum += seats[row];
+        return sum;
+    }
+
+    // Стоимость всех свободных мест выбранных строк, в копейках
+    public long seatValueKop(int[] rows) {
+        long sum = 0;
+        for (int row : rows) sum += pricesKop[row] * seats[row];
+        return sum;
+    }
+
+    // Стоимость свободных мест по направлениям: индекс массива — код направления
+    public long[] seatValueKopByDestination(int[] rows) {
+        long[] sums = new long[dictionary.size()];
+        for (int row : rows) sums[destinations[row]] += pricesKop[row] * seats[row];
+        return sums;
+    }
+
+    public int[] countByDestination(int[] rows) {
+        int[] counts = new int[dictionary.size()];
+        for (int row : rows) counts[destinations[row]]++;
+        return counts;
+    }
+
+    public Cruise toCruise(int row) {
+        return new Cruise(ids[row], dictionary.get(destinations[row]), Instant.ofEpochMilli(departures[row]),
+                durations[row], pricesKop[row], seats[row]);
+    }
+
+    public int size() { return size; }
+    public int getId(int row) { return ids[row]; }
+    public String getDestination(int row) { return dictionary.get(destinations[row]); }
+    public int getDestinationCode(int row) { return destinations[row]; }
+    public long getDeparture(int row) { return departures[row]; }
+    public int getDuration(int row) { return durations[row]; }
+    public long getPriceKop(int row) { return pricesKop[row]; }
+    public int getSeats(int row) { return seats[row]; }
+    public int dictionarySize() { return dictionary.size(); }
+    public String destinationOf(int code) { return dictionary.get(code); }
+}
+
+// ===================================================================
+// БЕНЧМАРКИ
+// java -cp out/production/PP00:sqlite-jdbc.jar CruiseBenchmark [--ключ=значение ...]
+//   --cruises=100000 --users=200 --bookings=200000   размеры сгенерированной базы
+//   --db=путь.db      сохранить базу (по умолчанию временный файл удаляется)
+//   --mode=all|suite|compare|none   основной набор, сравнения реализаций, всё или только генерация базы
+// ===================================================================
+// Накопитель замеров задержки с перцентилями
+class LatencyStats {
+    private final long[] samples;
+    private int count;
+    private boolean sorted;
+
+    LatencyStats(int capacity) {
+        samples = new long[Math.max(1, capacity)];
+    }
+
+    synchronized void record(long nanos) {
+        if (count < samples.length) {
+            samples[count++] = nanos;
+            sorted = false;
+        }
+    }
+
+    synchronized long percentile(double p) {
+        if (count == 0) return 0;
+        if (!sorted) {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+        int idx = (int) Math.ceil(p / 100.0 * count) - 1;
+        return samples[Math.max(0, Math.min(count - 1, idx))];
+    }
+
+    synchronized int count() { return count; }
+
+    void print(String name, long elapsedNanos) {
+        System.out.printf("%-28s %,10.1f оп/с   p50: %s   p90: %s   p99: %s   max: %s%n",
+                name, count() / (elapsedNanos / 1e9),
+                format(percentile(50)), format(percentile(90)), format(percentile(99)), format(percentile(100)));
+    }
+
+    // Гистограмма по степеням двойки в микросекундах
+    synchronized void printHistogram() {
+        int[] buckets = new int[40];
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            long micros = Math.max(1, samples[i] / 1000);
+            int b = 63 - Long.numberOfLeadingZeros(micros);
+            buckets[b]++;
+            top = Math.max(top, b);
+        }
+        for (int b = 0; b <= top; b++) {
+            if (buckets[b] == 0) continue;
+            StringBuilder bar = new StringBuilder();
+            for (int i = Math.max(1, (int) Math.round(50.0 * buckets[b] / count)); i > 0; i--) bar.append('#');
+            System.out.printf("  %9s .. %-9s %8d  %s%n", format((1L << b) * 1000).trim(),
+                    format((1L << (b + 1)) * 1000).trim(), buckets[b], bar);
+        }
+    }
+
+    static String format(long nanos) {
+        if (nanos >= 1_000_000) return String.format("%8.2f мс", nanos / 1e6);
+        return String.format("%8.1f мкс", nanos / 1e3);
+    }
+}
+
+class CruiseBenchmark {
+    private static final int LOOKUPS = 20_000;
+    private static final int FULL_LOADS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        int cruiseCount = Integer.parseInt(options.getOrDefault("cruises", "100000"));
+        int userCount = Integer.parseInt(options.getOrDefault("users", "200"));
+        int bookingCount = Integer.parseInt(options.getOrDefault("bookings", "200000"));
+        String mode = options.getOrDefault("mode", "all");
+        long seed = Long.parseLong(options.getOrDefault("seed", String.valueOf(DataGenerator.DEFAULT_SEED)));
+
+        boolean keep = options.containsKey("db");
+        File dbFile = keep ? new File(options.get("db")) : File.createTempFile("cruise-bench", ".db");
+        if (keep) deleteDatabase(dbFile);
+        String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+
+        try {
+            long start = System.nanoTime();
+            DBHelper setup = new DBHelper(url);
+            setup.initDatabase();
+            new DataGenerator(seed, cruiseCount, userCount, bookingCount,
+                    LocalDate.now(Dates.ZONE).atStartOfDay(Dates.ZONE).toInstant()).populate(url);
+            checkQueryPlans(setup);
+            setup.close();
+            System.out.printf("База: %d круизов, %d пользователей, %d броней (генерация %.1f с)%n",
+                    cruiseCount, userCount, bookingCount, (System.nanoTime() - start) / 1e9);
+
+            if (mode.equals("all") || mode.equals("suite")) {
+                runSuite(url, cruiseCount);
+            }
+            if (mode.equals("all") || mode.equals("compare")) {
+                benchConnectionLatency("Без пула (DriverManager)", new DBHelper(url, 0), cruiseCount);
+                benchConnectionLatency("Пул соединений", new DBHelper(url), cruiseCount);
+                benchCatalogFilter(url);
+                benchSearchIndex(1_000_000);
+                benchTableModel(1_000_000);
+                benchDateFormatting(1_000_000);
+                benchCruiseTable(url, 1_000_000);
+                benchConcurrentBooking(url, 8, 2000);
+                benchGroupCommit(url, 64, 20_000, new long[]{0, 1, 2, 5, 10});
+                benchSeatInventory(url, 64, 4, 5_000);
+                benchJournal(url, 200_000, 2_000);
+                benchCancellation(url, 10_000);
+                benchLogin(url, new int[]{10_000, 100_000, Passwords.DEFAULT_ITERATIONS});
+                benchBookingsPage(url, cruiseCount, 50_000);
+                benchExport(url);
+                benchImport(url, 100_000);
+                benchAnalytics(url);
+            }
+        } finally {
+            if (!keep) deleteDatabase(dbFile);
+        }
+    }
+
+    // Основной набор: пропускная способность и перцентили задержки типовых операций
+    private static void runSuite(String url, int cruiseCount) throws Exception {
+        DBHelper db = new DBHelper(url);
+        java.util.Random rnd = new java.util.Random(17);
+
+        measure("Загрузка каталога", 2, 10, () -> db.getAllCruises());
+
+        CruiseCatalog catalog = new CruiseCatalog(db);
+        measure("Поиск по каталогу", 200, 5000, () ->
+                catalog.filter(SEARCH_TERMS[rnd.nextInt(SEARCH_TERMS.length)],
+                        Money.ofRubles(rnd.nextInt(100) * 1000), Money.ofRubles(150_000 + rnd.nextInt(200) * 1000)));
+
+        List<Integer> bookingIds = new ArrayList<>();
+        measure("Бронирование", 100, 3000, () -> {
+            int id = db.bookSeats(1, 1 + rnd.nextInt(cruiseCount), 1, "+70000000000");
+            if (id > 0) bookingIds.add(id);
+        });
+
+        int[] next = {0};
+        measure("Отмена брони", 100, bookingIds.size() - 100, () ->
+                db.deleteBookingById(bookingIds.get(next[0]++)));
+
+        File out = File.createTempFile("bench-export", ".csv");
+        long[] rows = {0};
+        LatencyStats export = measure("Экспорт CSV", 1, 3, () -> {
+            try {
+                rows[0] = db.exportBookingsToCSV(out);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        System.out.printf("%-28s %,.0f строк/с%n", "", rows[0] / (export.percentile(50) / 1e9));
+        out.delete();
+        db.close();
+    }
+
+    static LatencyStats measure(String name, int warmup, int iterations, Runnable op) {
+        for (int i = 0; i < warmup; i++) {
+            op.run();
+        }
+        LatencyStats stats = new LatencyStats(iterations);
+        long total = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            op.run();
+            stats.record(System.nanoTime() - start);
+        }
+        stats.print(name, System.nanoTime() - total);
+        return stats;
+    }
+
+    private static void benchConnectionLatency(String name, DBHelper db, int cruiseCount) {
+        java.util.Random rnd = new java.util.Random(42);
+
+        // Прогрев
+        for (int i = 0; i < 1000; i++) {
+            db.findCruiseById(1 + rnd.nextInt(cruiseCount));
+        }
+        db.getAllCruises();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            db.findCruiseById(1 + rnd.nextInt(cruiseCount));
+        }
+        double lookupMicros = (System.nanoTime() - start) / 1000.0 / LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < FULL_LOADS; i++) {
+            db.getAllCruises();
+        }
+        double loadMillis = (System.nanoTime() - start) / 1_000_000.0 / FULL_LOADS;
+
+        System.out.printf("%-28s findCruiseById: %8.1f мкс/вызов   getAllCruises: %8.1f мс/вызов" +
+                        "   кэш выражений: %d попаданий / %d промахов%n",
+                name, lookupMicros, loadMillis, db.getStatementCacheHits(), db.getStatementCacheMisses());
+        db.close();
+    }
+
+    // Горячие запросы должны идти по индексам из миграций схемы
+    private static void checkQueryPlans(DBHelper db) {
+        String[][] expectations = {
+                {"SELECT * FROM cruises ORDER BY departure", "idx_cruises_departure"},
+                {"SELECT * FROM cruises WHERE price_kop BETWEEN 5000000 AND 9000000", "idx_cruises_price_kop"},
+                {"SELECT b.*, c.* FROM bookings b JOIN cruises c ON b.cruise_id = c.id " +
+                        "WHERE b.user_id = 1 ORDER BY b.booking_date DESC", "idx_bookings_user_date"},
+                {"SELECT b.id FROM bookings b JOIN cruises c ON b.cruise_id = c.id WHERE b.user_id = 1 " +
+                        "AND (b.booking_date, b.id) < (0, 0) ORDER BY b.booking_date DESC, b.id DESC LIMIT 200",
+                        "idx_bookings_user_date"},
+                {"DELETE FROM bookings WHERE cruise_id = 1", "idx_bookings_cruise"},
+                {"SELECT b.id FROM bookings b JOIN users u ON b.user_id = u.id " +
+                        "JOIN cruises c ON b.cruise_id = c.id ORDER BY b.booking_date DESC", "idx_bookings_date"}
+        };
+
+        for (String[] e : expectations) {
+            String plan = String.join(" | ", db.explainQueryPlan(e[0]));
+            if (!plan.contains(e[1])) {
+                throw new IllegalStateException("Запрос не использует " + e[1] + ": " + plan);
+            }
+        }
+        System.out.println("Схема v" + db.getSchemaVersion() + ": планы запросов используют индексы");
+    }
+
+    private static final String[] SEARCH_TERMS = {"м", "мо", "мор", "море", "аляска", "#12", "исл", ""};
+
+    // Фильтрация: перечитка всей таблицы на каждое нажатие против кэша каталога
+    private static void benchCatalogFilter(String url) {
+        DBHelper db = new DBHelper(url);
+        int rounds = 3;
+
+        long start = System.nanoTime();
+        int dbMatches = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String term : SEARCH_TERMS) {
+                for (Cruise c : db.getAllCruises()) {
+                    if (c.getDestination().toLowerCase().contains(term) &&
+                            c.getPriceKop() >= Money.ofRubles(50_000) && c.getPriceKop() <= Money.ofRubles(150_000)) {
+                        dbMatches++;
+                    }
+                }
+            }
+        }
+        double dbMillis = (System.nanoTime() - start) / 1e6 / (rounds * SEARCH_TERMS.length);
+
+        CruiseCatalog catalog = new CruiseCatalog(db);
+        start = System.nanoTime();
+        int cachedMatches = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String term : SEARCH_TERMS) {
+                cachedMatches += catalog.filter(term, Money.ofRubles(50_000), Money.ofRubles(150_000)).size();
+            }
+        }
+        double cachedMillis = (System.nanoTime() - start) / 1e6 / (rounds * SEARCH_TERMS.length);
+
+        // Кэш должен увидеть изменение мест без перечитки
+        Cruise first = catalog.getAll().get(0);
+        int before = first.getAvailableSeats();
+        db.bookSeats(1, first.getId(), 1, "+70000000000");
+        boolean coherent = catalog.findById(first.getId()).getAvailableSeats() == before - 1;
+        db.close();
+
+        System.out.printf("Фильтр каталога              через БД: %8.1f мс/запрос   из кэша: %6.1f мс/запрос" +
+                        "   попаданий: %d, загрузок: %d, возраст: %d мс%n",
+                dbMillis, cachedMillis, catalog.getHits(), catalog.getLoads(), catalog.getStalenessMillis());
+        if (dbMatches != cachedMatches || !coherent) {
+            throw new IllegalStateException("Кэш каталога расходится с базой");
+        }
+    }
+
+    // Синтетический каталог в памяти, отсортированный по дате отправления
+    static List<Cruise> syntheticCruises(int size) {
+        String[] regions = {"Средиземное море", "Балтийское море", "Норвежские фьорды", "Карибский бассейн",
+                "Аляска", "Япония", "Канарские острова", "Исландия"};
+        String[] ports = {"Рим", "Барселона", "Марсель", "Таллин", "Стокгольм", "Берген", "Гавана", "Джуно",
+                "Токио", "Осака", "Тенерифе", "Рейкьявик", "Неаполь", "Хельсинки", "Майами"};
+        java.util.Random rnd = new java.util.Random(11);
+        long base = System.currentTimeMillis();
+
+        List<Cruise> cruises = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String destination = regions[rnd.nextInt(regions.length)] + " (" + ports[rnd.nextInt(ports.length)] +
+                    ", " + ports[rnd.nextInt(ports.length)] + ")";
+            cruises.add(new Cruise(i + 1, destination, Instant.ofEpochMilli(base + rnd.nextInt(730) * 86_400_000L),
+                    3 + rnd.nextInt(18), Money.ofRubles(30_000 + rnd.nextInt(300) * 1000), 20 + rnd.nextInt(300)));
+        }
+        cruises.sort(Comparator.comparing(Cruise::getDeparture).thenComparingInt(Cruise::getId));
+        return cruises;
+    }
+
+    // Поисковый индекс против линейного просмотра на синтетическом каталоге в памяти
+    private static void benchSearchIndex(int size) {
+        List<Cruise> cruises = syntheticCruises(size);
+
+        long start = System.nanoTime();
+        CruiseSearchIndex index = new CruiseSearchIndex(cruises);
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+
+        Object[][] queries = {
+                {"рейкьявик, гавана", 0.0, 1_000_000.0},
+                {"аляска (джуно, тенерифе", 100_000.0, 101_000.0},
+                {"осака", 250_000.0, 260_000.0},
+                {"ЯПОНИЯ (токио, токио)", 0.0, 1_000_000.0},
+                {"", 55_000.0, 55_000.0},
+                {"берлин", 0.0, 1_000_000.0}
+        };
+        int repeats = 200;
+        double linearMicros = 0, indexMicros = 0;
+
+        for (Object[] q : queries) {
+            String text = (String) q[0];
+            long min = Money.ofRubles((Double) q[1]), max = Money.ofRubles((Double) q[2]);
+
+            start = System.nanoTime();
+            List<Cruise> expected = new ArrayList<>();
+            for (Cruise c : cruises) {
+                if (c.getDestination().toLowerCase().contains(text.toLowerCase()) &&
+                        c.getPriceKop() >= min && c.getPriceKop() <= max) {
+                    expected.add(c);
+                }
+            }
+            linearMicros += (System.nanoTime() - start) / 1e3;
+
+            List<Cruise> actual = null;
+            start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                actual = index.search(text, min, max);
+            }
+            indexMicros += (System.nanoTime() - start) / 1e3 / repeats;
+
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("Индекс расходится с линейным поиском для \"" + text + "\"");
+            }
+        }
+
+        System.out.printf("Поисковый индекс (%d строк, %d направлений, построение %.0f мс)   " +
+                        "линейно: %.1f мс/запрос   по индексу: %.3f мс/запрос%n",
+                size, index.dictionarySize(), buildMillis,
+                linearMicros / 1e3 / queries.length, indexMicros / 1e3 / queries.length);
+    }
+
+    // Заполнение таблицы: DefaultTableModel.addRow с форматированием всех строк
+    // против CruiseTableModel, который форматирует только видимые строки
+    private static void benchTableModel(int size) {
+        List<Cruise> cruises = syntheticCruises(size);
+        String[] cols = {"ID", "Направление", "Дата отправления", "Дней", "Цена (₽)", "Доступно мест", "Статус"};
+        int visibleRows = 30;
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        DefaultTableModel legacy = new DefaultTableModel(cols, 0);
+        SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
+        for (Cruise c : cruises) {
+            legacy.addRow(new Object[]{c.getId(), c.getDestination(), sdf.format(Date.from(c.getDeparture())),
+                    c.getDurationDays(), String.format("%,.2f", Money.toRubles(c.getPriceKop())), c.getAvailableSeats(),
+                    c.getAvailableSeats() > 0 ? "✅ Есть места" : "❌ Нет мест"});
+        }
+        double legacyMillis = (System.nanoTime() - start) / 1e6;
+        long legacyHeap = usedHeap() - heapBefore;
+        legacy = null;
+
+        heapBefore = usedHeap();
+        start = System.nanoTime();
+        CruiseTableModel model = new CruiseTableModel(cols, true);
+        model.setCruises(cruises);
+        for (int row = 0; row < visibleRows; row++) {
+            for (int col = 0; col < cols.length; col++) {
+                model.getValueAt(row, col);
+            }
+        }
+        double lazyMillis = (System.nanoTime() - start) / 1e6;
+        long lazyHeap = usedHeap() - heapBefore;
+
+        System.out.printf("Таблица (%d строк)        DefaultTableModel: %.0f мс, +%d МБ   " +
+                        "CruiseTableModel: %.2f мс, +%d МБ%n",
+                size, legacyMillis, legacyHeap >> 20, lazyMillis, Math.max(0, lazyHeap) >> 20);
+    }
+
+    // Форматирование дат: SimpleDateFormat на каждую строку (как было в экспорте),
+    // общий DateTimeFormatter и Dates.formatDay с кэшем строк по дню
+    private static void benchDateFormatting(int size) {
+        long[] dates = new long[size];
+        long base = System.currentTimeMillis();
+        java.util.Random rnd = new java.util.Random(42);
+        for (int i = 0; i < size; i++) {
+            dates[i] = base + rnd.nextInt(730) * 86_400_000L + rnd.nextInt(86_400_000);
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        String[] legacy = new String[size];
+        for (int i = 0; i < size; i++) {
+            legacy[i] = new SimpleDateFormat("dd.MM.yyyy").format(new Date(dates[i]));
+        }
+        double legacyNs = (System.nanoTime() - start) / (double) size;
+        long legacyBytes = (threads.getCurrentThreadAllocatedBytes() - bytes) / size;
+
+        bytes = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        String[] shared = new String[size];
+        for (int i = 0; i < size; i++) {
+            shared[i] = Dates.DAY.format(Dates.toLocalDate(Instant.ofEpochMilli(dates[i])));
+        }
+        double sharedNs = (System.nanoTime() - start) / (double) size;
+        long sharedBytes = (threads.getCurrentThreadAllocatedBytes() - bytes) / size;
+
+        bytes = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        String[] cached = new String[size];
+        for (int i = 0; i < size; i++) {
+            cached[i] = Dates.formatDay(dates[i]);
+        }
+        double cachedNs = (System.nanoTime() - start) / (double) size;
+        long cachedBytes = (threads.getCurrentThreadAllocatedBytes() - bytes) / size;
+
+        boolean same = Arrays.equals(legacy, shared) && Arrays.equals(legacy, cached);
+        System.out.printf("Даты (%d строк)           SimpleDateFormat: %.0f нс, %d Б   " +
+                        "DateTimeFormatter: %.0f нс, %d Б   кэш дня: %.0f нс, %d Б   (совпадают: %s)%n",
+                size, legacyNs, legacyBytes, sharedNs, sharedBytes, cachedNs, cachedBytes, same);
+    }
+
+    // Колоночный каталог против List<Cruise>: загрузка из базы, память и запрос
+    // «свободные места и их стоимость по направлениям в диапазоне цен и дат»
+    private static void benchCruiseTable(String url, int size) {
+        DBHelper db = new DBHelper(url);
+        db.getAllCruises();
+        db.loadCruiseTable();
+        long start = System.nanoTime();
+        int listed = db.getAllCruises().size();
+        double listLoadMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        int tabled = db.loadCruiseTable().size();
+        double tableLoadMs = (System.nanoTime() - start) / 1e6;
+        db.close();
+        System.out.printf("%nЗагрузка каталога (%d строк)   List<Cruise>: %.0f мс   CruiseTable: %.0f мс%n",
+                listed, listLoadMs, tableLoadMs);
+        if (listed != tabled) throw new IllegalStateException("Загружено " + tabled + " из " + listed);
+
+        long heapBefore = usedHeap();
+        List<Cruise> cruises = syntheticCruises(size);
+        long listHeap = usedHeap() - heapBefore;
+        heapBefore = usedHeap();
+        CruiseTable table = CruiseTable.of(cruises);
+        long tableHeap = usedHeap() - heapBefore;
+
+        long from = cruises.get(0).getDeparture().toEpochMilli() + 30 * 86_400_000L;
+        long to = from + 180 * 86_400_000L;
+        long minKop = 80_000_00, maxKop = 200_000_00;
+        int iterations = 30;
+
+        Map<String, Long> byList = null;
+        start = 0;
+        for (int i = 0; i < iterations * 2; i++) {
+            if (i == iterations) start = System.nanoTime();  // первая половина — прогрев
+            byList = new HashMap<>();
+            for (Cruise c : cruises) {
+                long t = c.getDeparture().toEpochMilli();
+                long kop = c.getPriceKop();
+                if (kop >= minKop && kop <= maxKop && t >= from && t <= to && c.getAvailableSeats() >= 1) {
+                    byList.merge(c.getDestination(), kop * c.getAvailableSeats(), Long::sum);
+                }
+            }
+        }
+        double listMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+        long[] byTable = null;
+        start = 0;
+        for (int i = 0; i < iterations * 2; i++) {
+            if (i == iterations) start = System.nanoTime();
+            byTable = table.seatValueKopByDestination(table.select(minKop, maxKop, from, to, 1));
+        }
+        double tableMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+        // Результаты обоих путей должны совпасть
+        for (int code = 0; code < byTable.length; code++) {
+            long expected = byList.getOrDefault(table.destinationOf(code), 0L);
+            if (expected != byTable[code]) {
+                throw new IllegalStateException("Расхождение по " + table.destinationOf(code) +
+                        ": " + expected + " != " + byTable[code]);
+            }
+        }
+        System.out.printf("Колоночный каталог (%d строк, %d направлений)   List<Cruise>: %.1f мс/запрос, %d МБ   " +
+                        "CruiseTable: %.1f мс/запрос, %d МБ%n",
+                size, table.dictionarySize(), listMs, listHeap >> 20, tableMs, tableHeap >> 20);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Несколько потоков бронируют один круиз до исчерпания мест; проверяем отсутствие перепродажи
+    private static void benchConcurrentBooking(String url, int threads, int capacity) throws Exception {
+        DBHelper db = new DBHelper(url, threads);
+        Cruise hot = new Cruise(-1, "Стресс-тест бронирования", Instant.now(), 7, Money.ofRubles(100_000), capacity);
+        db.insertCruise(hot);
+        int cruiseId = hot.getId();
+
+        AtomicInteger bookedSeats = new AtomicInteger();
+        AtomicInteger bookingCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers.add(executor.submit(() -> {
+                startSignal.await();
+                java.util.Random rnd = new java.util.Random(seed);
+                while (true) {
+                    int seats = 1 + rnd.nextInt(3);
+                    if (db.bookSeats(1, cruiseId, seats, "Клиент " + seed, "+70000000000") > 0) {
+                        bookedSeats.addAndGet(seats);
+                        bookingCount.incrementAndGet();
+                    } else if (db.findCruiseById(cruiseId).getAvailableSeats() == 0) {
+                        return null;
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        startSignal.countDown();
+        for (Future<?> f : workers) {
+            f.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        int remaining = db.findCruiseById(cruiseId).getAvailableSeats();
+        int storedSeats = 0;
+        for (Booking b : db.getBookingsByUser(1)) {
+            if (b.getCruise().getId() == cruiseId) storedSeats += b.getSeats();
+        }
+        db.close();
+
+        System.out.printf("Бронирование (%d потоков)    %d броней за %.2f с = %.0f броней/с, продано %d из %d мест%n",
+                threads, bookingCount.get(), seconds, bookingCount.get() / seconds, storedSeats, capacity);
+        if (remaining != 0 || storedSeats != capacity || bookedSeats.get() != capacity) {
+            throw new IllegalStateException("Перепродажа или потеря мест: остаток " + remaining +
+                    ", в бронях " + storedSeats + ", подтверждено " + bookedSeats.get());
+        }
+    }
+
+    // Групповая фиксация: clients клиентов на виртуальных потоках бронируют по одному месту
+    // подряд, сначала каждое бронирование своей транзакцией, затем через BookingBatcher
+    // с разным окном. Места круиза в конце сверяются с числом подтверждённых броней.
+    private static void benchGroupCommit(String url, int clients, int bookings, long[] windows) throws Exception {
+        System.out.printf("%nГрупповая фиксация (%d клиентов, %d броней на прогон)%n", clients, bookings);
+        runGroupCommit(url, clients, bookings, -1);
+        for (long window : windows) {
+            runGroupCommit(url, clients, bookings, window);
+        }
+    }
+
+    private static void runGroupCommit(String url, int clients, int bookings, long window) throws Exception {
+        DBHelper db = new DBHelper(url, window < 0 ? clients : 2);
+        int capacity = bookings - bookings / 10;  // часть запросов должна получить отказ
+        Cruise cruise = new Cruise(-1, "Тест групповой фиксации", Instant.now(), 7, Money.ofRubles(80_000), capacity);
+        db.insertCruise(cruise);
+        int cruiseId = cruise.getId();
+
+        BookingBatcher batcher = window < 0 ? null :
+                new BookingBatcher(db, window, BookingBatcher.DEFAULT_MAX_BATCH);
+        LatencyStats stats = new LatencyStats(bookings);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger booked = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                executor.submit(() -> {
+                    while (next.getAndIncrement() < bookings) {
+                        long t0 = System.nanoTime();
+                        int id = batcher == null ?
+                                db.bookSeats(1, cruiseId, 1, "Клиент", "+70000000000") :
+                                batcher.submit(new BookingRequest(1, cruiseId, 1, "Клиент", "+70000000000")).join();
+                        stats.record(System.nanoTime() - t0);
+                        if (id > 0) booked.incrementAndGet();
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        String name;
+        if (batcher == null) {
+            name = "Транзакция на бронь";
+        } else {
+            batcher.close();
+            name = String.format("Окно %d мс (пакет ~%.0f)", window, batcher.getAverageBatchSize());
+        }
+        stats.print(name, elapsed);
+
+        int remaining = db.findCruiseById(cruiseId).getAvailableSeats();
+        db.close();
+        if (booked.get() != capacity || remaining != 0) {
+            throw new IllegalStateException("Расхождение мест: подтверждено " + booked.get() +
+                    " из " + capacity + ", остаток " + remaining);
+        }
+    }
+
+    // Учёт мест в памяти: threads потоков разбирают места нескольких «горячих» круизов.
+    // Сначала только резервы в SeatInventory, затем полный путь бронирования
+    // без учёта в памяти и с ним; в конце сверяются остатки в памяти, в базе и число броней.
+    private static void benchSeatInventory(String url, int threads, int cruises, int capacity) throws Exception {
+        System.out.printf("%nУчёт мест (%d потоков, %d круизов по %d мест)%n", threads, cruises, capacity);
+        DBHelper db = new DBHelper(url, 2);
+        int[] ids = new int[cruises];
+        for (int i = 0; i < cruises; i++) {
+            Cruise c = new Cruise(-1, "Горячий круиз " + (i + 1), Instant.now(), 7, Money.ofRubles(90_000), capacity);
+            db.insertCruise(c);
+            ids[i] = c.getId();
+        }
+
+        SeatInventory inventory = new SeatInventory(db);
+        AtomicInteger reserved = new AtomicInteger();
+        long elapsed = runClients(threads, rnd -> {
+            int id = ids[rnd.nextInt(ids.length)];
+            if (inventory.tryReserve(id, 1) >= 0) {
+                reserved.incrementAndGet();
+            }
+            return reserved.get() < cruises * capacity;
+        });
+        System.out.printf("%-28s %,10.0f резервов/с%n", "Только SeatInventory", reserved.get() / (elapsed / 1e9));
+        if (reserved.get() != cruises * capacity) {
+            throw new IllegalStateException("Зарезервировано " + reserved.get() + " из " + cruises * capacity);
+        }
+        for (int id : ids) inventory.release(id, capacity);
+
+        for (boolean inMemory : new boolean[]{false, true}) {
+            for (int id : ids) {
+                Cruise c = db.findCruiseById(id);
+                c.setAvailableSeats(capacity);
+                db.updateCruise(c);
+            }
+            BookingBatcher batcher = new BookingBatcher(db, BookingBatcher.DEFAULT_WINDOW_MS, BookingBatcher.DEFAULT_MAX_BATCH);
+            BookingService service = new BookingService(db, batcher, inMemory ? inventory : null);
+            LatencyStats rejects = new LatencyStats(100_000);
+            AtomicInteger booked = new AtomicInteger();
+            Set<Integer> soldOut = java.util.concurrent.ConcurrentHashMap.newKeySet();
+
+            elapsed = runClients(threads, rnd -> {
+                int id = ids[rnd.nextInt(ids.length)];
+                long t0 = System.nanoTime();
+                BookingResult r = service.book(1, id, 1, "Клиент", "+70000000000");
+                if (r.isOk()) {
+                    booked.incrementAndGet();
+                } else {
+                    rejects.record(System.nanoTime() - t0);
+                    if (r.getStatus() == BookingResult.Status.NO_SEATS) soldOut.add(id);
+                }
+                // Клиенты работают, пока каждый круиз хоть раз не ответил «мест нет»
+                return soldOut.size() < ids.length;
+            });
+            batcher.close();
+
+            int remainingDb = 0;
+            for (int id : ids) remainingDb += db.findCruiseById(id).getAvailableSeats();
+            int remainingMemory = 0;
+            for (int id : ids) remainingMemory += inventory.getAvailable(id);
+            System.out.printf("%-28s %,10.0f броней/с   отказ p50: %s   p99: %s%n",
+                    inMemory ? "Бронирование + SeatInventory" : "Бронирование через базу",
+                    booked.get() / (elapsed / 1e9),
+                    LatencyStats.format(rejects.percentile(50)), LatencyStats.format(rejects.percentile(99)));
+            if (booked.get() != cruises * capacity || remainingDb != 0 || (inMemory && remainingMemory != 0)) {
+                throw new IllegalStateException("Расхождение мест: броней " + booked.get() +
+                        ", остаток в базе " + remainingDb + ", в памяти " + remainingMemory);
+            }
+        }
+        db.close();
+    }
+
+    // Дозапись в журнал против вставок в SQLite: по строке в транзакции и пакетом в одной транзакции
+    private static void benchJournal(String url, int records, int singleInserts) throws Exception {
+        File file = File.createTempFile("cruise-bench", ".journal");
+        try {
+            BookingJournal journal = new BookingJournal(file);
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                journal.append(BookingJournal.BOOKED, i + 1, 1 + i % 200, 1 + i % 1000, 1 + i % 4,
+                        System.currentTimeMillis(), "Клиент " + i, "+70000000000");
+            }
+            journal.sync();
+            double journalRate = records / ((System.nanoTime() - start) / 1e9);
+            if (journal.size() != records || journal.get(records - 1).bookingId != records) {
+                throw new IllegalStateException("Журнал потерял записи: " + journal.size());
+            }
+            journal.close();
+
+            String insertSql = "INSERT INTO journal_bench (booking_id, user_id, cruise_id, seats, time, customer_name, contact) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)";
+            double singleRate, batchRate;
+            try (Connection conn = DriverManager.getConnection(url)) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("CREATE TABLE journal_bench (booking_id INTEGER, user_id INTEGER, cruise_id INTEGER, " +
+                            "seats INTEGER, time INTEGER, customer_name TEXT, contact TEXT)");
+                }
+                try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
+                    start = System.nanoTime();
+                    for (int i = 0; i < singleInserts; i++) {
+                        bindJournalRow(ps, i);
+                        ps.executeUpdate();
+                    }
+                    singleRate = singleInserts / ((System.nanoTime() - start) / 1e9);
+
+                    conn.setAutoCommit(false);
+                    start = System.nanoTime();
+                    for (int i = 0; i < records; i++) {
+                        bindJournalRow(ps, i);
+                        ps.addBatch();
+                        if (i % 10_000 == 9_999) ps.executeBatch();
+                    }
+                    ps.executeBatch();
+                    conn.commit();
+                    batchRate = records / ((System.nanoTime() - start) / 1e9);
+                    conn.setAutoCommit(true);
+                }
+                try (Statement st = conn.createStatement()) {
+                    st.execute("DROP TABLE journal_bench");
+                }
+            }
+            System.out.printf("%nЖурнал (%d записей, %d байт)  журнал: %,.0f записей/с   SQLite по одной: %,.0f/с   " +
+                            "SQLite пакетом: %,.0f/с%n",
+                    records, BookingJournal.RECORD_SIZE, journalRate, singleRate, batchRate);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void bindJournalRow(PreparedStatement ps, int i) throws SQLException {
+        ps.setInt(1, i + 1);
+        ps.setInt(2, 1 + i % 200);
+        ps.setInt(3, 1 + i % 1000);
+        ps.setInt(4, 1 + i % 4);
+        ps.setLong(5, System.currentTimeMillis());
+        ps.setString(6, "Клиент " + i);
+        ps.setString(7, "+70000000000");
+    }
+
+    // Запускает threads виртуальных потоков, каждый повторяет шаг, пока тот возвращает true
+    private static long runClients(int threads, java.util.function.Predicate<java.util.Random> step) {
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                executor.submit(() -> {
+                    java.util.Random rnd = new java.util.Random(seed);
+                    while (step.test(rnd)) {
+                        // повторяем
+                    }
+                });
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    // «Мои бронирования» корпоративного клиента: весь список против первой страницы
+    // и против листания всех страниц по ключу до конца
+    private static void benchBookingsPage(String url, int cruiseCount, int count) throws SQLException {
+        DBHelper db = new DBHelper(url);
+        db.registerUser("corporate", "corporate", "Корпоративный клиент");
+        int userId = db.authenticateUser("corporate", "corporate").getId();
+
+        String sql = "INSERT INTO bookings (user_id, cruise_id, customer_name, seats, contact, booking_date) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        java.util.Random rnd = new java.util.Random(23);
+        long base = System.currentTimeMillis() - 365 * 86_400_000L;
+        try (Connection conn = DriverManager.getConnection(url)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < count; i++) {
+                    ps.setInt(1, userId);
+                    ps.setInt(2, 1 + rnd.nextInt(cruiseCount));
+                    ps.setString(3, "Сотрудник " + i);
+                    ps.setInt(4, 1 + rnd.nextInt(4));
+                    ps.setString(5, "+7900" + (1_000_000 + rnd.nextInt(9_000_000)));
+                    // Секунды, а не миллисекунды: много броней с одинаковой датой проверяют ключ по id
+                    ps.setLong(6, base + rnd.nextInt(365 * 86_400) * 1000L);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        }
+
+        long start = System.nanoTime();
+        int all = db.getBookingsByUser(userId).size();
+        double fullMs = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        List<BookingRow> first = db.getBookingsPage(userId, null, 200);
+        double firstMs = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        int paged = 0, pages = 0;
+        Set<Integer> seen = new HashSet<>();
+        for (List<BookingRow> page = first; !page.isEmpty();
+             page = db.getBookingsPage(userId, page.get(page.size() - 1), 200)) {
+            for (BookingRow r : page) seen.add(r.getId());
+            paged += page.size();
+            pages++;
+        }
+        double walkMs = (System.nanoTime() - start) / 1e6 + firstMs;
+        benchBookingCruiseSharing(url, db, userId);
+        db.close();
+
+        System.out.printf("Мои брони (%d шт.)           весь список: %.0f мс   первая страница: %.1f мс   " +
+                "все %d страниц: %.0f мс (%.2f мс/стр.)%n", all, fullMs, firstMs, pages, walkMs, walkMs / pages);
+        if (paged != all || seen.size() != all) {
+            throw new IllegalStateException("Страницы вернули " + paged + " строк (" + seen.size() +
+                    " разных) из " + all);
+        }
+    }
+
+    // Память списка броней: круиз на каждую строку (прежний запрос) против общих экземпляров
+    private static void benchBookingCruiseSharing(String url, DBHelper db, int userId) throws SQLException {
+        for (int round = 0; round < 2; round++) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            List<Booking> copies = legacyBookingsByUser(url, userId);
+            double copiesMs = (System.nanoTime() - start) / 1e6;
+            long copiesBytes = usedHeap() - before;
+            int copiesCruises = distinctCruises(copies);
+            copies = null;
+
+            before = usedHeap();
+            start = System.nanoTime();
+            List<Booking> shared = db.getBookingsByUser(userId);
+            double sharedMs = (System.nanoTime() - start) / 1e6;
+            long sharedBytes = usedHeap() - before;
+
+            // Первый проход прогревает JIT и кэш страниц SQLite, печатается второй
+            if (round == 1) {
+                System.out.printf("Круизы в бронях (%d броней)    копии: %d объектов, %.1f МБ, %.0f мс   " +
+                                "общие: %d объектов, %.1f МБ, %.0f мс%n",
+                        shared.size(), copiesCruises, copiesBytes / 1048576.0, copiesMs,
+                        distinctCruises(shared), sharedBytes / 1048576.0, sharedMs);
+            }
+        }
+    }
+
+    private static int distinctCruises(List<Booking> bookings) {
+        Set<Cruise> unique = Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+        for (Booking b : bookings) unique.add(b.getCruise());
+        return unique.size();
+    }
+
+    // Прежний getBookingsByUser: SELECT b.*, c.* и новый Cruise на каждую строку
+    private static List<Booking> legacyBookingsByUser(String url, int userId) throws SQLException {
+        List<Booking> bookings = new ArrayList<>();
+        String sql = "SELECT b.*, c.* FROM bookings b JOIN cruises c ON b.cruise_id = c.id " +
+                "WHERE b.user_id = ? ORDER BY b.booking_date DESC";
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Cruise cruise = new Cruise(rs.getInt("cruise_id"), rs.getString("destination"),
+                        Instant.ofEpochMilli(rs.getLong("departure")), rs.getInt("duration"),
+                        rs.getLong("price_kop"), rs.getInt("available_seats"));
+                Booking booking = new Booking(rs.getInt("id"), rs.getInt("user_id"), cruise,
+                        rs.getInt("seats"), rs.getString("contact"), Instant.ofEpochMilli(rs.getLong("booking_date")));
+                booking.setCustomerName(rs.getString("customer_name"));
+                bookings.add(booking);
+            }
+        }
+        return bookings;
+    }
+
+    // Вход: старый SHA-256 с hex через String.format и сравнением в SQL против PBKDF2
+    // с разной стоимостью; перехеширование старой записи; проверка прав по сессии
+    private static void benchLogin(String url, int[] costs) throws SQLException {
+        int legacyLogins = 20_000;
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement(
+                     "INSERT INTO users (username, password, fullname) VALUES (?, ?, ?)")) {
+            ps.setString(1, "legacy-login");
+            ps.setString(2, Passwords.legacyHash("legacy-pass"));
+            ps.setString(3, "Старый клиент");
+            ps.executeUpdate();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < legacyLogins; i++) {
+            if (legacyAuthenticate(url, "legacy-login", "legacy-pass") == 0) {
+                throw new IllegalStateException("Старый вход не прошёл");
+            }
+        }
+        double legacyRate = legacyLogins / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("%nВход (SHA-256, сравнение в SQL)   %,10.0f входов/с%n", legacyRate);
+
+        for (int cost : costs) {
+            DBHelper db = new DBHelper(url);
+            db.setPasswordIterations(cost);
+            String name = "login-" + cost;
+            db.registerUser(name, "secret-" + cost, "Клиент");
+            int logins = Math.max(5, 2_000_000 / cost);
+            db.authenticateUser(name, "secret-" + cost);
+            start = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                if (db.authenticateUser(name, "secret-" + cost) == null) {
+                    throw new IllegalStateException("Вход не прошёл при стоимости " + cost);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (db.authenticateUser(name, "wrong") != null) {
+                throw new IllegalStateException("Неверный пароль принят");
+            }
+            System.out.printf("Вход (PBKDF2, %,9d итераций) %,10.1f входов/с   %.1f мс/вход%n",
+                    cost, logins / seconds, seconds * 1000 / logins);
+            db.close();
+        }
+
+        // Первый вход со старым хешем переводит запись на PBKDF2, пароль остаётся прежним
+        DBHelper db = new DBHelper(url);
+        db.setPasswordIterations(costs[0]);
+        User legacyUser = db.authenticateUser("legacy-login", "legacy-pass");
+        String stored;
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement("SELECT password FROM users WHERE username = ?")) {
+            ps.setString(1, "legacy-login");
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            stored = rs.getString(1);
+        }
+        if (legacyUser == null || Passwords.needsRehash(stored, costs[0])
+                || db.authenticateUser("legacy-login", "legacy-pass") == null) {
+            throw new IllegalStateException("Старый хеш не перехеширован: " + stored);
+        }
+
+        SessionStore sessions = new SessionStore(SessionStore.DEFAULT_IDLE_TIMEOUT_MS);
+        String token = sessions.open(legacyUser);
+        int checks = 1_000_000;
+        int admins = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < checks; i++) {
+            if (sessions.isAdmin(token)) admins++;
+        }
+        double checkNs = (System.nanoTime() - start) / (double) checks;
+        db.close();
+        System.out.printf("Проверка прав по сессии          %,10.0f нс/проверку (администраторов: %d), " +
+                "старый хеш перехеширован%n", checkNs, admins);
+    }
+
+    // Прежний authenticateUser: hex через String.format и сравнение хеша в WHERE
+    private static int legacyAuthenticate(String url, String username, String password) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement("SELECT * FROM users WHERE username = ? AND password = ?")) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest(password.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            ps.setString(1, username);
+            ps.setString(2, hex.toString());
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getInt("id") : 0;
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Импорт каталога: insertCruise на строку против CruiseImporter (CSV и JSON,
+    // транзакции по 10 000 строк); каждая сотая строка испорчена и должна быть отклонена
+    private static void benchImport(String url, int rows) throws Exception {
+        File csv = File.createTempFile("bench-import", ".csv");
+        File jsonFile = File.createTempFile("bench-import", ".json");
+        java.util.Random rnd = new java.util.Random(29);
+        int invalid = 0;
+        try (java.io.PrintWriter c = new java.io.PrintWriter(csv, StandardCharsets.UTF_8);
+             java.io.PrintWriter j = new java.io.PrintWriter(jsonFile, StandardCharsets.UTF_8)) {
+            c.println("Направление;Дата;Дней;Цена;Мест");
+            j.println("[");
+            for (int i = 0; i < rows; i++) {
+                boolean bad = i % 100 == 99;
+                if (bad) invalid++;
+                String destination = "Импорт; рейс \"" + i + "\"";
+                String date = bad ? "31.02.2027" : String.format("%02d.%02d.2027", 1 + rnd.nextInt(28), 1 + rnd.nextInt(12));
+                int days = 3 + rnd.nextInt(18);
+                String price = (30_000 + rnd.nextInt(300) * 1000) + ",50";
+                int seats = 20 + rnd.nextInt(300);
+                c.println("\"" + destination.replace("\"", "\"\"") + "\";" + date + ";" + days + ";" + price + ";" + seats);
+                j.printf("%s{\"destination\": \"%s\", \"departure\": \"%s\", \"duration\": %d, \"price\": %s, \"seats\": %d}%n",
+                        i == 0 ? "" : ",", destination.replace("\"", "\\\""), date, days, price.replace(',', '.'), seats);
+            }
+            j.println("]");
+        }
+
+        DBHelper db = new DBHelper(url);
+        int single = 2_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < single; i++) {
+            db.insertCruise(new Cruise(0, "По одной #" + i, Instant.now(), 7, Money.ofRubles(50_000), 100));
+        }
+        double singleRate = single / ((System.nanoTime() - start) / 1e9);
+
+        CruiseImporter.Result fromCsv = CruiseImporter.importFile(db, csv, CruiseImporter.DEFAULT_TRANSACTION_ROWS);
+        CruiseImporter.Result fromJson = CruiseImporter.importFile(db, jsonFile, CruiseImporter.DEFAULT_TRANSACTION_ROWS);
+        db.close();
+        csv.delete();
+        jsonFile.delete();
+
+        System.out.printf("Импорт каталога (%d строк)     insertCruise по одной: %,.0f строк/с   " +
+                        "CSV: %,.0f строк/с   JSON: %,.0f строк/с   отклонено: %d / %d%n",
+                rows, singleRate, fromCsv.getRowsPerSecond(), fromJson.getRowsPerSecond(),
+                fromCsv.getRejected(), fromJson.getRejected());
+        for (CruiseImporter.Result r : new CruiseImporter.Result[]{fromCsv, fromJson}) {
+            if (r.getImported() != rows - invalid || r.getRejected() != invalid) {
+                throw new IllegalStateException("Импорт: " + r.summary() + ", ожидалось отклонить " + invalid);
+            }
+        }
+    }
+
+    // Аналитика: группировка броней с соединением круизов на каждое открытие против чтения
+    // агрегатов. Перед замером круиз правится и удаляется, чтобы проверить все триггеры;
+    // затем агрегаты сверяются с пересчётом с нуля
+    private static void benchAnalytics(String url) throws SQLException {
+        DBHelper db = new DBHelper(url);
+        List<AnalyticsRow> top = db.getRevenueByCruise(2);
+        List<Cruise> all = db.getAllCruises();
+        Cruise edited = all.get(all.size() / 2);
+        edited.setDestination("Переименованное направление");
+        edited.setPriceKop(edited.getPriceKop() + Money.ofRubles(1_000));
+        edited.setDeparture(edited.getDeparture().plus(java.time.Duration.ofDays(40)));
+        db.updateCruise(edited);
+        db.deleteCruise(all.get(all.size() / 3).getId());
+        db.bookSeats(1, edited.getId(), 1, "+70000000000");
+
+        String perCruise = "SELECT cruise_id, COUNT(*) n, SUM(seats) s FROM bookings GROUP BY cruise_id";
+        String scanDestinations = "SELECT c.destination, COUNT(*), SUM(IFNULL(b.n, 0)), SUM(IFNULL(b.s, 0)), " +
+                "SUM(c.available_seats), SUM(IFNULL(b.s, 0) * c.price_kop) " +
+                "FROM cruises c LEFT JOIN (" + perCruise + ") b ON b.cruise_id = c.id GROUP BY c.destination";
+        String scanMonths = "SELECT strftime('%Y-%m', c.departure / 1000, 'unixepoch'), COUNT(*), " +
+                "SUM(IFNULL(b.n, 0)), SUM(IFNULL(b.s, 0)), SUM(c.available_seats), SUM(IFNULL(b.s, 0) * c.price_kop) " +
+                "FROM cruises c LEFT JOIN (" + perCruise + ") b ON b.cruise_id = c.id GROUP BY 1";
+        String scanCruises = "SELECT c.id, IFNULL(b.n, 0), IFNULL(b.s, 0), IFNULL(b.s, 0) * c.price_kop " +
+                "FROM cruises c LEFT JOIN (" + perCruise + ") b ON b.cruise_id = c.id";
+        String[][] checks = {
+                {"SELECT destination, cruises, bookings, seats, available, revenue_kop FROM stats_destination",
+                        scanDestinations},
+                {"SELECT month, cruises, bookings, seats, available, revenue_kop FROM stats_month",
+                        scanMonths},
+                {"SELECT cruise_id, bookings, seats, revenue_kop FROM stats_cruise", scanCruises}
+        };
+
+        int runs = 5;
+        long start = System.nanoTime();
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement st = conn.createStatement()) {
+            for (int i = 0; i < runs; i++) {
+                for (String sql : new String[]{scanMonths + " ORDER BY 1", scanDestinations + " ORDER BY 6 DESC LIMIT 200",
+                        scanCruises + " ORDER BY 4 DESC LIMIT 200"}) {
+                    ResultSet rs = st.executeQuery(sql);
+                    while (rs.next()) rs.getLong(2);
+                }
+            }
+        }
+        double scanMs = (System.nanoTime() - start) / 1e6 / runs;
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            db.getRevenueByMonth();
+            db.getRevenueByDestination(200);
+            db.getRevenueByCruise(200);
+        }
+        double statsMs = (System.nanoTime() - start) / 1e6 / runs;
+
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement st = conn.createStatement()) {
+            for (String[] check : checks) {
+                ResultSet rs = st.executeQuery("SELECT (SELECT COUNT(*) FROM (" + check[0] + " EXCEPT " + check[1] + ")) + " +
+                        "(SELECT COUNT(*) FROM (" + check[1] + " EXCEPT " + check[0] + "))");
+                rs.next();
+                if (rs.getInt(1) != 0) {
+                    throw new IllegalStateException("Агрегаты расходятся с бронями: " + rs.getInt(1) +
+                            " строк в " + check[0]);
+                }
+            }
+        }
+        db.close();
+
+        System.out.printf("Аналитика (%d круизов)        группировка броней: %.1f мс   агрегаты: %.2f мс   " +
+                "(совпадают после правки и удаления круиза; лидер по выручке: %s)%n",
+                all.size(), scanMs, statsMs, top.isEmpty() ? "-" : top.get(0).getLabel());
+    }
+
+    // Отмена по одной (deleteBookingById) против пакетной отмены (cancelBookings)
+    private static void benchCancellation(String url, int count) {
+        DBHelper db = new DBHelper(url);
+        Cruise cruise = new Cruise(-1, "Тест отмены", Instant.now(), 7, Money.ofRubles(50_000), count);
+        db.insertCruise(cruise);
+
+        int[] ids = bookSingleSeats(db, cruise.getId(), count);
+        long start = System.nanoTime();
+        for (int id : ids) {
+            db.deleteBookingById(id);
+        }
+        double singleSeconds = (System.nanoTime() - start) / 1e9;
+        int afterSingle = db.findCruiseById(cruise.getId()).getAvailableSeats();
+
+        ids = bookSingleSeats(db, cruise.getId(), count);
+        start = System.nanoTime();
+        int cancelled = db.cancelBookings(ids);
+        double batchSeconds = (System.nanoTime() - start) / 1e9;
+        int afterBatch = db.findCruiseById(cruise.getId()).getAvailableSeats();
+
+        // Повтор id в одном вызове не должен вернуть места дважды
+        int[] twice = bookSingleSeats(db, cruise.getId(), 2);
+        int duplicates = db.cancelBookings(new int[]{twice[0], twice[0], twice[1]});
+        int afterDuplicates = db.findCruiseById(cruise.getId()).getAvailableSeats();
+        db.close();
+        if (duplicates != 2 || afterDuplicates != count) {
+            throw new IllegalStateException("Повторный id отменён дважды: " + duplicates + " броней, " +
+                    afterDuplicates + " мест из " + count);
+        }
+
+        System.out.printf("Отмена %d броней              по одной: %.2f с (%.0f/с)   пакетом: %.3f с (%.0f/с)%n",
+                count, singleSeconds, count / singleSeconds, batchSeconds, cancelled / batchSeconds);
+        if (afterSingle != count || afterBatch != count || cancelled != count) {
+            throw new IllegalStateException("Места не вернулись: " + afterSingle + " / " + afterBatch);
+        }
+    }
+
+    // Выгрузка CSV: прежний printf-вариант против потокового экспорта
+    private static void benchExport(String url) throws Exception {
+        DBHelper db = new DBHelper(url);
+        File legacyFile = File.createTempFile("export-legacy", ".csv");
+        File streamFile = File.createTempFile("export-stream", ".csv");
+
+        try {
+            long start = System.nanoTime();
+            legacyExport(url, legacyFile);
+            double legacySeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            long rows = db.exportBookingsToCSV(streamFile, DBHelper.EXPORT_FETCH_SIZE, (done, total) -> true);
+            double streamSeconds = (System.nanoTime() - start) / 1e9;
+
+            String legacy = new String(java.nio.file.Files.readAllBytes(legacyFile.toPath()));
+            String stream = new String(java.nio.file.Files.readAllBytes(streamFile.toPath()),
+                    java.nio.charset.StandardCharsets.UTF_8).substring(1);
+
+            System.out.printf("Экспорт CSV (%d строк)      printf: %.0f строк/с   потоковый: %.0f строк/с%n",
+                    rows, rows / legacySeconds, rows / streamSeconds);
+            // Сравнение имеет смысл, только если кодировка по умолчанию передаёт кириллицу
+            boolean comparable = java.nio.charset.Charset.defaultCharset().newEncoder().canEncode("Круиз");
+            if (comparable && !legacy.replace(System.lineSeparator(), "\n").equals(stream)) {
+                throw new IllegalStateException("Потоковый экспорт отличается от прежнего формата");
+            }
+        } finally {
+            db.close();
+            legacyFile.delete();
+            streamFile.delete();
+        }
+    }
+
+    // Прежняя реализация экспорта — точка отсчёта для сравнения
+    private static void legacyExport(String url, File file) throws Exception {
+        String sql = "SELECT b.*, u.username, u.fullname, c.destination, c.departure, c.price_kop / 100.0 AS price " +
+                "FROM bookings b JOIN users u ON b.user_id = u.id JOIN cruises c ON b.cruise_id = c.id " +
+                "ORDER BY b.booking_date DESC";
+
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery();
+             java.io.PrintWriter pw = new java.io.PrintWriter(file)) {
+
+            pw.println("ID;Пользователь;ФИО;Круиз;Дата круиза;Имя клиента;Мест;Контакт;Дата брони;Сумма");
+            SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
+            SimpleDateFormat sdfDateTime = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+
+            while (rs.next()) {
+                pw.printf("%d;%s;%s;%s;%s;%s;%d;%s;%s;%.2f%n",
+                        rs.getInt("id"), rs.getString("username"), rs.getString("fullname"),
+                        rs.getString("destination"), sdf.format(new Date(rs.getLong("departure"))),
+                        rs.getString("customer_name"), rs.getInt("seats"), rs.getString("contact"),
+                        sdfDateTime.format(new Date(rs.getLong("booking_date"))),
+                        rs.getInt("seats") * rs.getDouble("price"));
+            }
+        }
+    }
+
+    private static int[] bookSingleSeats(DBHelper db, int cruiseId, int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = db.bookSeats(1, cruiseId, 1, "+70000000000");
+        }
+        return ids;
+    }
+
+    static void deleteDatabase(File dbFile) {
+        for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+            new File(dbFile.getPath() + suffix).delete();
+        }
+    }
+}
+
+// ===================================================================
+// НАГРУЗОЧНЫЙ ПРОГОН БРОНИРОВАНИЙ БЕЗ ИНТЕРФЕЙСА
+// java -cp out/production/PP00:sqlite-jdbc.jar BookingLoadDriver --db=cruise.db --requests=файл
+//   файл: по строке на запрос "userId;cruiseId;мест;имя клиента;контакт", строки с # пропускаются
+//   --generate=N вместо --requests: N случайных запросов по круизам из базы
+//   --executor=virtual|platform|compare   виртуальные потоки, пул из --threads потоков или оба по очереди
+//   --threads=8   размер пула платформенных потоков
+//   --writers=2   сколько запросов одновременно работают с SQLite
+//   --populate=круизов:пользователей:броней   сначала заполнить базу DataGenerator (--seed=42)
+// ===================================================================
+class BookingLoadDriver {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        if (!options.containsKey("db") || !(options.containsKey("requests") || options.containsKey("generate"))) {
+            System.err.println("Использование: BookingLoadDriver --db=cruise.db (--requests=файл | --generate=N) " +
+                    "[--executor=virtual|platform|compare] [--threads=8] [--writers=2] " +
+                    "[--populate=круизов:пользователей:броней] [--seed=42]");
+            System.exit(2);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int writers = Integer.parseInt(options.getOrDefault("writers", String.valueOf(BookingExecutor.DEFAULT_WRITERS)));
+        String mode = options.getOrDefault("executor", "virtual");
+
+        String url = "jdbc:sqlite:" + options.get("db");
+        DBHelper db = new DBHelper(url, writers);
+        db.initDatabase();
+        if (options.containsKey("populate")) {
+            String[] scale = options.get("populate").split(":");
+            long seed = Long.parseLong(options.getOrDefault("seed", String.valueOf(DataGenerator.DEFAULT_SEED)));
+            new DataGenerator(seed, Integer.parseInt(scale[0]), Integer.parseInt(scale[1]), Integer.parseInt(scale[2]),
+                    LocalDate.now(Dates.ZONE).atStartOfDay(Dates.ZONE).toInstant()).populate(url);
+        }
+        BookingService service = new BookingService(db);
+
+        List<String[]> requests = options.containsKey("requests") ?
+                readRequests(new File(options.get("requests"))) :
+                generateRequests(db, Integer.parseInt(options.get("generate")));
+        System.out.printf("Запросов: %d, писателей: %d%n", requests.size(), writers);
+
+        if (mode.equals("platform") || mode.equals("compare")) {
+            run("Пул из " + threads + " платформенных потоков",
+                    BookingExecutor.withPlatformThreads(service, writers, threads), requests);
+        }
+        if (mode.equals("virtual") || mode.equals("compare")) {
+            run("Виртуальные потоки", new BookingExecutor(service, writers), requests);
+        }
+        db.close();
+    }
+
+    private static void run(String name, BookingExecutor executor, List<String[]> requests) {
+        LatencyStats stats = new LatencyStats(requests.size());
+        Map<BookingResult.Status, AtomicInteger> outcomes = new java.util.EnumMap<>(BookingResult.Status.class);
+        for (BookingResult.Status st : BookingResult.Status.values()) outcomes.put(st, new AtomicInteger());
+
+        // Все запросы отправляются сразу; задержка — от отправки до результата
+        List<CompletableFuture<?>> futures = new ArrayList<>(requests.size());
+        long start = System.nanoTime();
+        for (String[] r : requests) {
+            long submitted = System.nanoTime();
+            CompletableFuture<BookingResult> f;
+            try {
+                f = executor.book(Integer.parseInt(r[0]), Integer.parseInt(r[1]), Integer.parseInt(r[2]), r[3], r[4]);
+            } catch (NumberFormatException e) {
+                f = CompletableFuture.completedFuture(new BookingResult(BookingResult.Status.INVALID, -1));
+            }
+            futures.add(f.whenComplete((result, error) -> {
+                stats.record(System.nanoTime() - submitted);
+                outcomes.get(error == null ? result.getStatus() : BookingResult.Status.FAILED).incrementAndGet();
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        long elapsed = System.nanoTime() - start;
+        executor.close();
+
+        int failed = requests.size() - outcomes.get(BookingResult.Status.OK).get();
+        System.out.printf("%n%s: %,.0f запросов/с за %.2f с, одновременно в работе до %d%n",
+                name, requests.size() / (elapsed / 1e9), elapsed / 1e9, executor.getMaxInFlight());
+        System.out.printf("Отказы и ошибки: %d (%.2f%%)%n", failed, 100.0 * failed / Math.max(1, requests.size()));
+        for (Map.Entry<BookingResult.Status, AtomicInteger> e : outcomes.entrySet()) {
+            if (e.getValue().get() > 0) System.out.printf("  %-10s %d%n", e.getKey(), e.getValue().get());
+        }
+        stats.print("Задержка бронирования", elapsed);
+        stats.printHistogram();
+    }
+
+    static List<String[]> readRequests(File file) throws java.io.IOException {
+        List<String[]> requests = new ArrayList<>();
+        try (java.io.BufferedReader in = java.nio.file.Files.newBufferedReader(file.toPath(),
+                java.nio.charset.StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split(";", -1);
+                if (parts.length == 5) {
+                    requests.add(parts);
+                } else {
+                    System.err.println("Пропущена строка: " + line);
+                }
+            }
+        }
+        return requests;
+    }
+
+    static List<String[]> generateRequests(DBHelper db, int count) {
+        List<Cruise> cruises = db.getAllCruises();
+        java.util.Random rnd = new java.util.Random(23);
+        List<String[]> requests = new ArrayList<>(count);
+        for (int i = 0; i < count && !cruises.isEmpty(); i++) {
+            Cruise c = cruises.get(rnd.nextInt(cruises.size()));
+            requests.add(new String[]{"1", String.valueOf(c.getId()), String.valueOf(1 + rnd.nextInt(3)),
+                    "Клиент " + i, "+7900" + (1_000_000 + rnd.nextInt(9_000_000))});
+        }
+        return requests;
+    }
+}
+
+// ===================================================================
+// ПАКЕТНЫЙ ИМПОРТ КРУИЗОВ ИЗ CSV/JSON
+// java -cp out/production/PP00:sqlite-jdbc.jar CruiseImporter --db=cruise.db --file=каталог.csv [--batch=10000]
+//   CSV: "направление;дата;дней;цена;мест", дата dd.MM.yyyy, цена в рублях (145000 или 145000,50);
+//        первая строка с заголовком пропускается, поле в кавычках может содержать ';'
+//   JSON: [{"destination": "...", "departure": "15.06.2026", "duration": 10, "price": 145000, "seats": 150}, ...]
+//        дата также может быть в виде 2026-06-15
+// Файл читается потоком; проверенные строки копятся до --batch и уходят в базу одной транзакцией.
+// ===================================================================
+class CruiseImporter {
+    public static final int DEFAULT_TRANSACTION_ROWS = 10_000;
+    public static final int MAX_REPORTED_ERRORS = 100;
+
+    private static final int MAX_DESTINATION_LENGTH = 200;
+    private static final int MAX_DURATION_DAYS = 365;
+    private static final int MAX_SEATS = 100_000;
+
+    private final DBHelper db;
+    private final int transactionRows;
+    private final List<Cruise> pending = new ArrayList<>();
+    private final Result result = new Result();
+
+    // Буфер потокового разбора JSON
+    private java.io.Reader json;
+    private final char[] buf = new char[1 << 16];
+    private int pos;
+    private int len;
+
+    private CruiseImporter(DBHelper db, int transactionRows) {
+        this.db = db;
+        this.transactionRows = transactionRows;
+    }
+
+    public static Result importFile(DBHelper db, File file, int transactionRows) throws IOException {
+        CruiseImporter importer = new CruiseImporter(db, transactionRows);
+        long start = System.nanoTime();
+        try (java.io.Reader in = new java.io.InputStreamReader(
+                new java.io.FileInputStream(file), StandardCharsets.UTF_8)) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                importer.readJson(in);
+            } else {
+                importer.readCsv(new java.io.BufferedReader(in, 1 << 16));
+            }
+        }
+        importer.flush();
+        importer.result.nanos = System.nanoTime() - start;
+        return importer.result;
+    }
+
+    // ---------- CSV ----------
+
+    private void readCsv(java.io.BufferedReader in) throws IOException {
+        String line;
+        int lineNo = 0;
+        List<String> fields = new ArrayList<>(5);
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            if (lineNo == 1 && line.startsWith("\uFEFF")) line = line.substring(1);
+            if (line.isBlank() || line.startsWith("#")) continue;
+            if (lineNo == 1 && isHeader(line)) continue;
+
+            fields.clear();
+            if (!splitCsv(line, fields)) {
+                reject("строка " + lineNo, "незакрытая кавычка");
+            } else if (fields.size() != 5) {
+                reject("строка " + lineNo, "ожидалось 5 полей, получено " + fields.size());
+            } else {
+                accept("строка " + lineNo, fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.get(4));
+            }
+        }
+    }
+
+    private static boolean isHeader(String line) {
+        String lower = line.toLowerCase(Locale.ROOT);
+        return lower.contains("направление") || lower.contains("destination");
+    }
+
+    // Разделитель ';'; поле в кавычках может содержать ';', "" внутри — одна кавычка
+    private static boolean splitCsv(String line, List<String> fields) {
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ';') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return !quoted;
+    }
+
+    // ---------- JSON ----------
+    // Массив плоских объектов; значения — строки или числа. Разбор потоковый, без дерева.
+
+    private void readJson(java.io.Reader in) throws IOException {
+        json = in;
+        int c = skipSpace();
+        if (c == '\uFEFF') c = skipSpace();
+        if (c != '[') throw new IOException("JSON: ожидался массив объектов");
+        int record = 0;
+        Map<String, String> obj = new HashMap<>();
+        c = skipSpace();
+        if (c == ']') return;
+        while (true) {
+            record++;
+            if (c != '{') throw new IOException("JSON: ожидался объект в записи " + record);
+            obj.clear();
+            String error = readObject(obj);
+            if (error != null) {
+                reject("запись " + record, error);
+            } else {
+                accept("запись " + record, obj.get("destination"), obj.get("departure"),
+                        obj.getOrDefault("duration", obj.get("durationDays")), obj.get("price"),
+                        obj.getOrDefault("seats", obj.get("availableSeats")));
+            }
+            c = skipSpace();
+            if (c == ']') return;
+            if (c != ',') throw new IOException("JSON: ожидалась ',' или ']' после записи " + record);
+            c = skipSpace();
+        }
+    }
+
+    // Возвращает текст ошибки для записи с вложенными значениями; синтаксические ошибки — IOException
+    private String readObject(Map<String, String> obj) throws IOException {
+        String error = null;
+        int c = skipSpace();
+        if (c == '}') return "пустой объект";
+        while (true) {
+            if (c != '"') throw new IOException("JSON: ожидалось имя поля");
+            String key = readString();
+            if (skipSpace() != ':') throw new IOException("JSON: ожидалось ':' после \"" + key + "\"");
+            c = skipSpace();
+            if (c == '"') {
+                obj.put(key, readString());
+            } else if (c == '{' || c == '[') {
+                skipNested(c);
+                if (error == null) error = "поле \"" + key + "\" не может быть объектом или массивом";
+            } else {
+                obj.put(key, readLiteral(c));
+            }
+            c = skipSpace();
+            if (c == '}') return error;
+            if (c != ',') throw new IOException("JSON: ожидалась ',' или '}'");
+            c = skipSpace();
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = next();
+            if (c < 0) throw new IOException("JSON: незакрытая строка");
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append((char) c);
+                continue;
+            }
+            c = next();
+            switch (c) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for (int i = 0; i < 4; i++) hex[i] = (char) next();
+                    try {
+                        sb.append((char) Integer.parseInt(new String(hex), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("JSON: неверная последовательность \\u" + new String(hex));
+                    }
+                    break;
+                default:
+                    if (c < 0) throw new IOException("JSON: незакрытая строка");
+                    sb.append((char) c);
+            }
+        }
+    }
+
+    // Число, true/false/null — до разделителя
+    private String readLiteral(int first) throws IOException {
+        StringBuilder sb = new StringBuilder().append((char) first);
+        while (true) {
+            int c = peek();
+            if (c < 0 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) break;
+            sb.append((char) next());
+        }
+        String literal = sb.toString();
+        return literal.equals("null") ? null : literal;
+    }
+
+    private void skipNested(int open) throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = next();
+            if (c < 0) throw new IOException("JSON: неожиданный конец файла");
+            if (c == '"') readString();
+            else if (c == '{' || c == '[') depth++;
+            else if (c == '}' || c == ']') depth--;
+        }
+    }
+
+    private int skipSpace() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c >= 0 && Character.isWhitespace(c));
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (pos == len && !fill()) return -1;
+        return buf[pos];
+    }
+
+    private int next() throws IOException {
+        if (pos == len && !fill()) return -1;
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        len = json.read(buf);
+        pos = 0;
+        return len > 0;
+    }
+
+    // ---------- проверка и запись ----------
+
+    private void accept(String where, String destination, String departure, String duration,
+                        String price, String seats) {
+        Cruise cruise;
+        try {
+            cruise = validate(destination, departure, duration, price, seats);
+        } catch (IllegalArgumentException e) {
+            reject(where, e.getMessage());
+            return;
+        }
+        pending.add(cruise);
+        if (pending.size() >= transactionRows) flush();
+    }
+
+    static Cruise validate(String destination, String departure, String duration, String price, String seats) {
+        if (destination == null || destination.isBlank()) throw new IllegalArgumentException("нет направления");
+        destination = destination.trim();
+        if (destination.length() > MAX_DESTINATION_LENGTH) {
+            throw new IllegalArgumentException("направление длиннее " + MAX_DESTINATION_LENGTH + " символов");
+        }
+        if (departure == null) throw new IllegalArgumentException("нет даты отправления");
+        Instant date;
+        try {
+            String d = departure.trim();
+            date = d.length() == 10 && d.charAt(4) == '-'
+                    ? LocalDate.parse(d).atStartOfDay(Dates.ZONE).toInstant()
+                    : Dates.parseDay(d);
+        } catch (java.time.format.DateTimeParseException e) {
+            throw new IllegalArgumentException("неверная дата \"" + departure + "\"");
+        }
+        int days = parseInt(duration, "длительность", 1, MAX_DURATION_DAYS);
+        if (price == null) throw new IllegalArgumentException("нет цены");
+        long priceKop;
+        try {
+            priceKop = Money.parse(price);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("неверная цена \"" + price + "\"");
+        }
+        if (priceKop <= 0) throw new IllegalArgumentException("цена должна быть больше нуля");
+        int seatCount = parseInt(seats, "число мест", 0, MAX_SEATS);
+        return new Cruise(0, destination, date, days, priceKop, seatCount);
+    }
+
+    private static int parseInt(String text, String what, int min, int max) {
+        int value;
+        try {
+            value = Integer.parseInt(text == null ? "" : text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(what + ": не целое число \"" + text + "\"");
+        }
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(what + " вне диапазона " + min + ".." + max + ": " + value);
+        }
+        return value;
+    }
+
+    private void reject(String where, String reason) {
+        result.rejected++;
+        if (result.errors.size() < MAX_REPORTED_ERRORS) result.errors.add(where + ": " + reason);
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) return;
+        int inserted = db.insertCruises(pending);
+        if (inserted < 0) {
+            result.rejected += pending.size();
+            if (result.errors.size() < MAX_REPORTED_ERRORS) {
+                result.errors.add("транзакция на " + pending.size() + " строк отклонена базой");
+            }
+        } else {
+            result.imported += inserted;
+            result.transactions++;
+        }
+        pending.clear();
+    }
+
+    public static class Result {
+        private long imported;
+        private long rejected;
+        private int transactions;
+        private long nanos;
+        private final List<String> errors = new ArrayList<>();
+
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public int getTransactions() { return transactions; }
+        public List<String> getErrors() { return errors; }
+
+        public double getRowsPerSecond() {
+            return (imported + rejected) / Math.max(1e-9, nanos / 1e9);
+        }
+
+        public String summary() {
+            return String.format("Импортировано: %d, отклонено: %d, транзакций: %d, %.1f с (%.0f строк/с)",
+                    imported, rejected, transactions, nanos / 1e9, getRowsPerSecond());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        if (!options.containsKey("db") || !options.containsKey("file")) {
+            System.err.println("Использование: CruiseImporter --db=cruise.db --file=каталог.csv|каталог.json " +
+                    "[--batch=" + DEFAULT_TRANSACTION_ROWS + "]");
+            System.exit(2);
+        }
+        int batch = Integer.parseInt(options.getOrDefault("batch", String.valueOf(DEFAULT_TRANSACTION_ROWS)));
+
+        DBHelper db = new DBHelper("jdbc:sqlite:" + options.get("db"));
+        db.initDatabase();
+        Result result = importFile(db, new File(options.get("file")), batch);
+        db.close();
+
+        System.out.println(result.summary());
+        for (String error : result.getErrors()) System.out.println("  " + error);
+        if (result.getRejected() > result.getErrors().size()) {
+            System.out.printf("  ... и ещё %d%n", result.getRejected() - result.getErrors().size());
+        }
+    }
+}
+
+// ===================================================================
+// ГЕНЕРАТОР ТЕСТОВЫХ ДАННЫХ
+// java -cp out/production/PP00:sqlite-jdbc.jar DataGenerator --db=cruise.db
+//      [--cruises=100000] [--users=10000] [--bookings=1000000] [--seed=42] [--from=dd.MM.yyyy]
+// Одинаковые seed и --from дают одинаковую базу. Брони согласованы с местами:
+// available_seats = вместимость − сумма мест в бронях круиза и не уходит в минус.
+// Все сгенерированные пользователи (user1, user2, ...) входят с паролем USER_PASSWORD.
+// ===================================================================
+class DataGenerator {
+    public static final String USER_PASSWORD = "password";
+    public static final long DEFAULT_SEED = 42;
+
+    // Строк на один executeBatch и на одну транзакцию при записи броней
+    private static final int BATCH_ROWS = 10_000;
+    private static final int COMMIT_ROWS = 200_000;
+    private static final String[] DESTINATIONS = {"Средиземное море", "Балтийское море", "Норвежские фьорды",
+            "Карибский бассейн", "Аляска", "Япония", "Канарские острова", "Исландия"};
+
+    private final long seed;
+    private final int cruises;
+    private final int users;
+    private final int bookings;
+    private final Instant from;
+
+    // from — первый день отправлений; брони оформлены за год до него
+    public DataGenerator(long seed, int cruises, int users, int bookings, Instant from) {
+        if (bookings > 0 && (cruises <= 0 || users <= 0)) {
+            throw new IllegalArgumentException("Для броней нужны круизы и пользователи");
+        }
+        this.seed = seed;
+        this.cruises = cruises;
+        this.users = users;
+        this.bookings = bookings;
+        this.from = from;
+    }
+
+    // Схема уже должна быть создана (DBHelper.initDatabase); данные дописываются к имеющимся
+    public void populate(String url) throws SQLException {
+        java.util.Random rnd = new java.util.Random(seed);
+
+        // Сначала план в памяти: вместимость круизов и распределение броней по ним,
+        // чтобы круизы сразу записать с итоговым числом свободных мест
+        int[] capacity = new int[cruises];
+        int[] left = new int[cruises];
+        long totalSeats = 0;
+        for (int i = 0; i < cruises; i++) {
+            capacity[i] = 20 + rnd.nextInt(300);
+            left[i] = capacity[i];
+            totalSeats += capacity[i];
+        }
+        int[] bookingCruise = new int[bookings];
+        byte[] bookingSeats = new byte[bookings];
+        for (int i = 0; i < bookings; i++) {
+            int seats = 1 + rnd.nextInt(4);
+            if (totalSeats < seats) {
+                throw new IllegalArgumentException("Мест в " + cruises + " круизах не хватает на " + bookings + " броней");
+            }
+            // Круиз распродан — бронь уходит на следующий с достаточным остатком
+            int c = rnd.nextInt(cruises);
+            int probes = 0;
+            while (left[c] < seats) {
+                c = c + 1 == cruises ? 0 : c + 1;
+                if (++probes == cruises) {
+                    seats = 1;
+                    probes = 0;
+                }
+            }
+            left[c] -= seats;
+            totalSeats -= seats;
+            bookingCruise[i] = c;
+            bookingSeats[i] = (byte) seats;
+        }
+
+        try (Connection conn = DriverManager.getConnection(url)) {
+            conn.setAutoCommit(false);
+            try {
+                int firstCruiseId = insertCruises(conn, rnd, left);
+                int firstUserId = insertUsers(conn);
+                insertBookings(conn, rnd, bookingCruise, bookingSeats, firstCruiseId, firstUserId);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private int insertCruises(Connection conn, java.util.Random rnd, int[] left) throws SQLException {
+        String sql = "INSERT INTO cruises (destination, departure, duration, price_kop, available_seats) " +
+                "VALUES (?, ?, ?, ?, ?)";
+        long base = from.toEpochMilli();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < cruises; i++) {
+                ps.setString(1, DESTINATIONS[rnd.nextInt(DESTINATIONS.length)] + " #" + i);
+                ps.setLong(2, base + rnd.nextInt(730) * 86_400_000L);
+                ps.setInt(3, 3 + rnd.nextInt(18));
+                ps.setLong(4, Money.ofRubles(30_000 + rnd.nextInt(300) * 1000));
+                ps.setInt(5, left[i]);
+                ps.addBatch();
+                if (i % BATCH_ROWS == BATCH_ROWS - 1) ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+        // AUTOINCREMENT внутри одной транзакции выдаёт id подряд
+        return lastInsertId(conn) - cruises + 1;
+    }
+
+    private int insertUsers(Connection conn) throws SQLException {
+        // PBKDF2 с рабочей стоимостью считается один раз: у всех пользователей один пароль
+        String hash = Passwords.hash(USER_PASSWORD, Passwords.DEFAULT_ITERATIONS);
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO users (username, password, fullname) VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= users; i++) {
+                ps.setString(1, "user" + i);
+                ps.setString(2, hash);
+                ps.setString(3, "Клиент " + i);
+                ps.addBatch();
+                if (i % BATCH_ROWS == 0) ps.executeBatch();
+            }
+            ps.executeBatch();
+        }
+        return lastInsertId(conn) - users + 1;
+    }
+
+    private void insertBookings(Connection conn, java.util.Random rnd, int[] bookingCruise, byte[] bookingSeats,
+                                int firstCruiseId, int firstUserId) throws SQLException {
+        String sql = "INSERT INTO bookings (user_id, cruise_id, customer_name, seats, contact, booking_date) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        long base = from.toEpochMilli() - 365 * 86_400_000L;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < bookingCruise.length; i++) {
+                ps.setInt(1, firstUserId + rnd.nextInt(users));
+                ps.setInt(2, firstCruiseId + bookingCruise[i]);
+                ps.setString(3, "Клиент " + i);
+                ps.setInt(4, bookingSeats[i]);
+                ps.setString(5, "+7900" + (1_000_000 + rnd.nextInt(9_000_000)));
+                ps.setLong(6, base + (long) (rnd.nextDouble() * 365 * 86_400_000L));
+                ps.addBatch();
+                if (i % BATCH_ROWS == BATCH_ROWS - 1) ps.executeBatch();
+                if (i % COMMIT_ROWS == COMMIT_ROWS - 1) conn.commit();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static int lastInsertId(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        if (!options.containsKey("db")) {
+            System.err.println("Использование: DataGenerator --db=cruise.db [--cruises=100000] [--users=10000] " +
+                    "[--bookings=1000000] [--seed=42] [--from=dd.MM.yyyy]");
+            System.exit(2);
+        }
+        int cruiseCount = Integer.parseInt(options.getOrDefault("cruises", "100000"));
+        int userCount = Integer.parseInt(options.getOrDefault("users", "10000"));
+        int bookingCount = Integer.parseInt(options.getOrDefault("bookings", "1000000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", String.valueOf(DEFAULT_SEED)));
+        Instant from = options.containsKey("from")
+                ? Dates.parseDay(options.get("from"))
+                : LocalDate.now(Dates.ZONE).atStartOfDay(Dates.ZONE).toInstant();
+
+        String url = "jdbc:sqlite:" + options.get("db");
+        DBHelper db = new DBHelper(url);
+        db.initDatabase();
+        db.close();
+
+        long start = System.nanoTime();
+        new DataGenerator(seed, cruiseCount, userCount, bookingCount, from).populate(url);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Сгенерировано: %d круизов, %d пользователей, %d броней за %.1f с (%,.0f строк/с)%n",
+                cruiseCount, userCount, bookingCount, seconds, (cruiseCount + userCount + bookingCount) / seconds);
+    }
+}